@@ -4,11 +4,10 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
-import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -17,8 +16,11 @@ import java.util.Set;
 import model.Album;
 import model.Photo;
 import model.User;
+import util.ContentHashCache;
+import util.DataRepository;
 import util.FileManager;
 import util.GlobalTags;
+import util.PhotoImporter;
 
 /**
  * The Photos class is the main class of the application.
@@ -52,15 +54,30 @@ public class Photos {
             primaryStage.show();
         }
 
+        /**
+         * This method is called when the application exits.
+         * It writes any edits that are still waiting to be saved, and the content hashes
+         * used to find saved thumbnails.
+         */
+        @Override
+        public void stop() {
+            DataRepository.getInstance().flush();
+            ContentHashCache.getInstance().save();
+        }
+
         /**
          * Checks if the data file exists and initializes the necessary data if it doesn't.
-         * This method creates a new list of users, adds a stock user and album, scans the stock directory for photos,
+         * This method creates a new list of users, adds a stock user and album, imports the photos in the stock directory tree,
          * creates default tags, sets the default tags to GlobalTags, and saves the users list and tags to the data file.
+         * If the data file exists but was written in an older format, it is migrated instead.
          */
         private void checkAndInitializeData() {
         // Check if data.dat exists
         Path dataPath = Paths.get("data/data.dat");
-        if (!Files.exists(dataPath)) {
+        if (Files.exists(dataPath)) {
+            // Convert data files written in an older format
+            FileManager.migrate();
+        } else {
             // Create a new list of users
             List<User> users = new ArrayList<>();
 
@@ -70,23 +87,29 @@ public class Photos {
 
             // Create an album for the 'stock' user
             Album stockAlbum = new Album("Stock Album");
-            stockUser.getAlbums().add(stockAlbum);
-
-            // Scan the data/stock directory for photos
-            File stockDir = new File("data/stock");
-            File[] stockPhotos = stockDir.listFiles((dir, name) -> 
-                name.toLowerCase().endsWith(".jpeg") || name.toLowerCase().endsWith(".png") ||
-                name.toLowerCase().endsWith(".gif") || name.toLowerCase().endsWith(".bmp"));
-
-            if (stockPhotos != null) {
-                for (File photoFile : stockPhotos) {
-                    // Adjust this part to match handleAddPhoto
-                    Photo photo = new Photo(photoFile.getName(), LocalDateTime.now());
-                    String imagePath = photoFile.toURI().toString(); // Convert file path to URI string
-                    photo.setImagePath(imagePath);
-    
-                    // Add the photo to the stock album
-                    stockAlbum.addPhoto(photo);
+            stockUser.addAlbum(stockAlbum);
+
+            // Import every photo in the data/stock directory tree. Nothing is in the library yet,
+            // so the repository is not asked for duplicates.
+            Path stockDir = Paths.get("data/stock");
+            if (Files.isDirectory(stockDir)) {
+                try {
+                    PhotoImporter importer = new PhotoImporter(new PhotoImporter.Listener() {
+                        @Override
+                        public void batchReady(List<Photo> photos) {
+                            for (Photo photo : photos) {
+                                stockAlbum.addPhoto(photo);
+                            }
+                        }
+
+                        @Override
+                        public void progress(int done, int total) {
+                        }
+                    }, 70);
+                    importer.setFindDuplicates(false);
+                    importer.importFiles(PhotoImporter.findImages(stockDir));
+                } catch (IOException e) {
+                    System.err.println("Error reading stock photos: " + e.getMessage());
                 }
             }
 
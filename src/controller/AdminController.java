@@ -25,8 +25,7 @@ import java.util.ResourceBundle;
 import java.net.URL;
 
 import model.User;
-import util.FileManager;
-import util.GlobalTags;
+import util.DataRepository;
 
 
 
@@ -50,7 +49,7 @@ public class AdminController implements Initializable{
      */
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        this.userList = FileManager.loadData(); // Load the users into the list
+        this.userList = DataRepository.getInstance().getUsers(); // The shared list of users
         users.getItems().setAll(userList); // Display the users in the ListView
     }
 
@@ -85,9 +84,8 @@ public class AdminController implements Initializable{
                 alert.showAndWait();
             } else {
                 User newUser = new User(username);
-                userList.add(newUser);
+                DataRepository.getInstance().addUser(newUser);
                 users.getItems().setAll(userList);
-                FileManager.saveData(userList, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes()); // Save the serializable list
             }
         });
     }
@@ -114,22 +112,22 @@ public class AdminController implements Initializable{
 
             Optional<ButtonType> result = alert.showAndWait();
             if (result.get() == ButtonType.OK){
-                userList.remove(selectedUser);
+                DataRepository.getInstance().removeUser(selectedUser);
                 users.getItems().setAll(userList);
-                FileManager.saveData(userList, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes()); // Save the serializable list
             }
         }
     }
 
     /**
      * Handles the action when the logout button is clicked.
-     * This method changes the scene to the login scene.
+     * This method writes any pending edits and changes the scene to the login scene.
      *
      * @param event the action event triggered by the logout button
      * @throws Exception if an error occurs during scene transition
      */
     @FXML
     public void handleLogoutButtonAction(ActionEvent event) throws Exception {
+        DataRepository.getInstance().flush(); // Write pending edits before leaving the session
         Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
         Parent root = FXMLLoader.load(getClass().getResource("/view/LoginScene.fxml"));
         stage.setScene(new Scene(root));
@@ -7,104 +7,90 @@ package controller;
 
 import java.io.File;
 import java.io.IOException;
-import java.time.LocalDateTime;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
-import javafx.collections.FXCollections;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
+import javafx.geometry.Insets;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListCell;
-import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
-import javafx.scene.image.ImageView;
 import javafx.scene.layout.GridPane;
-import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import javafx.scene.Node;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.util.Callback;
 
 
 import model.Album;
 import model.Photo;
 import model.User;
 import model.Tag;
+import util.DataRepository;
 import util.FileManager;
 import util.GlobalTags;
+import util.ImageMetadata;
+import util.JournalEntry;
+import util.PhotoImporter;
 import util.AlbumChangeListener;
+import util.AlbumEvent;
+import util.AlbumEventBus;
+import view.PhotoGridView;
 
 /**
  * The AlbumController class is responsible for managing the user interface and functionality
  * related to displaying and manipulating albums and photos.
  */
-public class AlbumController {
+public class AlbumController implements AlbumChangeListener {
 
     @FXML
-    private ListView<Photo> photoListView;
+    private PhotoGridView photoGrid;
 
     private Album album; // The album you're displaying
     private User user; // The user that owns the album
-    private List<User> users;
-    private AlbumChangeListener listener;
 
 
-    // Initialize with an album, users list, and user
-    public void initData(Album album, List<User> users, User user, AlbumChangeListener listener) {
+    // Initialize with an album and the user that owns it
+    public void initData(Album album, User user) {
         this.album = album;
         this.user = user;
-        this.users = users;
-        this.listener = listener;
-        setupPhotoListView();
+        // Subscribe first and fill the grid after the batch of events already waiting, so changes made
+        // before the window opened are in the grid exactly once
+        AlbumEventBus.getInstance().subscribe(this);
+        Platform.runLater(this::setupPhotoGrid);
     }
 
 
     /**
-     * Sets up the photo list view by populating it with photos from the album and customizing the appearance of each photo cell.
+     * Stops listening for album changes. Called when the album window is closed.
      */
-    private void setupPhotoListView() {
-        photoListView.setItems(FXCollections.observableArrayList(album.getPhotos()));
-        photoListView.setCellFactory(new Callback<ListView<Photo>, ListCell<Photo>>() {
-            @Override
-            public ListCell<Photo> call(ListView<Photo> listView) {
-                return new ListCell<Photo>() {
-                    @Override
-                    protected void updateItem(Photo photo, boolean empty) {
-                        super.updateItem(photo, empty);
-                        if (empty || photo == null) {
-                            setText(null);
-                            setGraphic(null);
-                        } else {
-                            HBox hbox = new HBox(10); // 10 is the spacing between elements
-                            ImageView imageView = new ImageView(new javafx.scene.image.Image(photo.getImagePath()));
-                            imageView.setFitHeight(70); // Increased thumbnail size
-                            imageView.setFitWidth(70);
-                            imageView.setPreserveRatio(true);
-
-                            Label captionLabel = new Label("Caption: " + photo.getCaption());
-                            captionLabel.setWrapText(true); // Enable text wrapping
-                            captionLabel.setMaxWidth(200); // Adjust the maximum width for the label
-
-                            hbox.getChildren().addAll(imageView, captionLabel);
-                            setGraphic(hbox);
-                        }
-                    }
-                };
-            }
-        });
+    public void close() {
+        AlbumEventBus.getInstance().unsubscribe(this);
+    }
+
+
+    /**
+     * Shows the photos of the album in the thumbnail grid.
+     */
+    private void setupPhotoGrid() {
+        photoGrid.getPhotos().setAll(album.getPhotos());
     }
 
 
@@ -117,8 +103,9 @@ public class AlbumController {
 
     /**
      * Handles the event when the "Add Photo" button is clicked.
-     * Opens a file chooser dialog to select an image file, then adds the selected photo to the album.
-     * Updates the photo list view, shows a success message, and saves the data.
+     * Opens a file chooser dialog to select one or more image files. A single file is matched against
+     * the library in the background and then added to the album; several files are imported in the
+     * background, see {@link #importFiles(List)}.
      * If an error occurs, shows an error message with the error details.
      *
      * @param event The action event triggered by clicking the "Add Photo" button.
@@ -126,49 +113,155 @@ public class AlbumController {
     @FXML
     private void handleAddPhoto(ActionEvent event) {
         FileChooser fileChooser = new FileChooser();
-        FileChooser.ExtensionFilter imageFilter = new FileChooser.ExtensionFilter("Image Files", "*.jpg", "*.png", "*.bmp", "*.gif");
+        FileChooser.ExtensionFilter imageFilter = new FileChooser.ExtensionFilter("Image Files", "*.jpg", "*.jpeg", "*.png", "*.bmp", "*.gif");
         fileChooser.getExtensionFilters().add(imageFilter);
     
-        File file = fileChooser.showOpenDialog(null);
-        if (file != null) {
+        List<File> files = fileChooser.showOpenMultipleDialog(null);
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        if (files.size() > 1) {
+            importFiles(files);
+            return;
+        }
+        File file = files.get(0);
+
+        // Reading the header and matching the content can hash many library files, so both run off
+        // the JavaFX thread and the photo is added back on it
+        Thread lookup = new Thread(() -> {
             try {
-                String imagePath = file.toURI().toString();
-    
-                Photo newPhoto = new Photo(file.getName(), LocalDateTime.now());
-                newPhoto.setImagePath(imagePath);
-    
-                // Check for duplicate after adding the photo
-                Photo duplicatePhoto = findDuplicateInAllAlbums(newPhoto);
-                if (duplicatePhoto != null) {
-                    // Copy caption and tags from duplicate to new photo
-                    newPhoto.setCaption(duplicatePhoto.getCaption());
-                    newPhoto.getTags().clear(); // Clear existing tags if any
-                    for (Tag tag : duplicatePhoto.getTags()) {
-                        newPhoto.addTag(tag);
-                    }
-                    album.addPhoto(newPhoto);
-                    setupPhotoListView();
-    
-                    showAlert("Photo Added", "Photo has been added to the album. Caption and tags were copied to the new photo.");
+                Photo newPhoto = new Photo(file.getName(), ImageMetadata.read(file).getDate());
+                newPhoto.setImagePath(file.toURI().toString());
 
-                } else {
-                    // Add photo if no duplicate found
-                    album.addPhoto(newPhoto);
-                    setupPhotoListView();
-                    showAlert("Photo Added", "Photo has been added to the album.");
-                }
-    
-                updateUsersList(user);
-                FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-                notifyAlbumChanged();
-    
+                // Check for the same image already in the library, by path or by content
+                Photo duplicatePhoto = DataRepository.getInstance().findImage(file);
+                Platform.runLater(() -> addPhoto(newPhoto, duplicatePhoto));
             } catch (Exception e) {
-                showAlert("Error", "An error occurred while adding the photo: " + e.getMessage());
+                Platform.runLater(() -> showAlert("Error", "An error occurred while adding the photo: " + e.getMessage()));
+            }
+        }, "photo-lookup");
+        lookup.setDaemon(true);
+        lookup.start();
+    }
+
+    // Adds a photo chosen in handleAddPhoto, sharing the record of the same image if one was found
+    private void addPhoto(Photo newPhoto, Photo duplicatePhoto) {
+        int photoIndex;
+        if (duplicatePhoto != null) {
+            // Share the stored image, with its caption and tags, instead of importing it again
+            newPhoto.setImage(duplicatePhoto.getImage());
+            photoIndex = album.addPhoto(newPhoto);
+
+            showAlert("Photo Added", "Photo has been added to the album. It shares its caption and tags with the other copies of the image.");
+
+        } else {
+            // Add photo if no duplicate found
+            photoIndex = album.addPhoto(newPhoto);
+            showAlert("Photo Added", "Photo has been added to the album.");
+        }
+
+        DataRepository.getInstance().onPhotoAdded(newPhoto);
+        FileManager.record(JournalEntry.addPhoto(user.getUsername(), albumIndex(album), newPhoto));
+        AlbumEventBus.getInstance().publish(AlbumEvent.photoAdded(user, album, newPhoto, photoIndex));
+    }
+
+
+    /**
+     * Handles the event when the "Import Folder" button is clicked.
+     * Opens a directory chooser and imports every image in the chosen directory and its subdirectories.
+     *
+     * @param event The action event triggered by clicking the "Import Folder" button.
+     */
+    @FXML
+    private void handleImportFolder(ActionEvent event) {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        File directory = directoryChooser.showDialog(null);
+        if (directory == null) {
+            return;
+        }
+        try {
+            List<File> files = PhotoImporter.findImages(directory.toPath());
+            if (files.isEmpty()) {
+                showAlert("No Photos Found", "The folder does not contain any image files.");
+                return;
             }
+            importFiles(files);
+        } catch (IOException e) {
+            showAlert("Error", "An error occurred while reading the folder: " + e.getMessage());
         }
     }
 
 
+    /**
+     * Imports image files into the album on a background thread, showing the progress in a window
+     * that can cancel the import. Photos are added to the album in batches on the import thread, each
+     * recorded and then shown at once.
+     *
+     * @param files the image files to import
+     */
+    private void importFiles(List<File> files) {
+        Album target = album;
+        User owner = user;
+
+        Label status = new Label("Importing 0 of " + files.size() + " photos...");
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setPrefWidth(300);
+        Button cancelButton = new Button("Cancel");
+        VBox content = new VBox(10, status, progressBar, cancelButton);
+        content.setPadding(new Insets(15));
+        Stage progressStage = new Stage();
+        progressStage.setTitle("Importing Photos");
+        progressStage.setScene(new Scene(content));
+
+        PhotoImporter importer = new PhotoImporter(new PhotoImporter.Listener() {
+            @Override
+            public void batchReady(List<Photo> photos) {
+                int targetIndex = owner.getAlbums().indexOf(target);
+                for (Photo photo : photos) {
+                    int photoIndex;
+                    // Holding the album keeps the journal in the order the photos were added; the
+                    // repository is only called after letting go, as it reads albums under its own lock
+                    synchronized (target) {
+                        photoIndex = target.addPhoto(photo);
+                        FileManager.record(JournalEntry.addPhoto(owner.getUsername(), targetIndex, photo));
+                    }
+                    DataRepository.getInstance().onPhotoAdded(photo);
+                    AlbumEventBus.getInstance().publish(AlbumEvent.photoAdded(owner, target, photo, photoIndex));
+                }
+                FileManager.flush();
+            }
+
+            @Override
+            public void progress(int done, int total) {
+                Platform.runLater(() -> {
+                    status.setText("Importing " + done + " of " + total + " photos...");
+                    progressBar.setProgress((double) done / total);
+                });
+            }
+        }, 70);
+        cancelButton.setOnAction(e -> importer.cancel());
+        progressStage.setOnCloseRequest(e -> importer.cancel());
+        progressStage.show();
+
+        Thread worker = new Thread(() -> {
+            int imported = importer.importFiles(files);
+            Platform.runLater(() -> {
+                progressStage.close();
+                String message = imported + " photos were added to the album.";
+                if (importer.getFailed() > 0) {
+                    message += " " + importer.getFailed() + " files could not be read.";
+                }
+                if (importer.isCancelled()) {
+                    message = "The import was cancelled. " + message;
+                }
+                showAlert("Photos Imported", message);
+            });
+        }, "photo-import");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
 
 
     /**
@@ -178,7 +271,7 @@ public class AlbumController {
      */
     @FXML
     private void handleMovePhoto(ActionEvent event) {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
 
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to move.");
@@ -196,12 +289,10 @@ public class AlbumController {
                 showAlert("Duplicate Photo", "This photo already exists in the destination album.");
             return;
         }
-            album.getPhotos().remove(selectedPhoto);
+            int photoIndex = album.removePhoto(selectedPhoto);
             targetAlbum.addPhoto(selectedPhoto);
-            setupPhotoListView();
-            updateUsersList(user);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-            notifyAlbumChanged();
+            FileManager.record(JournalEntry.movePhoto(user.getUsername(), albumIndex(album), photoIndex, albumIndex(targetAlbum)));
+            AlbumEventBus.getInstance().publish(AlbumEvent.photoMoved(user, album, selectedPhoto, photoIndex, targetAlbum));
             showAlert("Photo Moved", "The photo has been moved to the album: " + targetAlbum.getAlbumName() + ".");
         } else {
             showAlert("No Album Selected", "No album was selected. Photo was not moved.");
@@ -223,7 +314,7 @@ public class AlbumController {
      */
     @FXML
     private void handleCopyPhoto(ActionEvent event) {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
 
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to copy.");
@@ -243,12 +334,12 @@ public class AlbumController {
                 return;
             }
 
-            Photo copiedPhoto = new Photo(selectedPhoto.getName(), LocalDateTime.now());
-            copiedPhoto.setImagePath(selectedPhoto.getImagePath());
-            targetAlbum.addPhoto(copiedPhoto);
-            setupPhotoListView();
-            updateUsersList(user);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
+            Photo copiedPhoto = new Photo(selectedPhoto.getName(), selectedPhoto.getDate());
+            copiedPhoto.setImage(selectedPhoto.getImage());
+            int photoIndex = targetAlbum.addPhoto(copiedPhoto);
+            DataRepository.getInstance().onPhotoAdded(copiedPhoto);
+            FileManager.record(JournalEntry.addPhoto(user.getUsername(), albumIndex(targetAlbum), copiedPhoto));
+            AlbumEventBus.getInstance().publish(AlbumEvent.photoAdded(user, targetAlbum, copiedPhoto, photoIndex));
             showAlert("Photo Copied", "The photo has been copied to the album: " + targetAlbum.getAlbumName() + ".");
         } else {
             showAlert("No Album Selected", "No album was selected. Photo was not copied.");
@@ -269,18 +360,17 @@ public class AlbumController {
      */
     @FXML
     private void handleRemovePhoto(ActionEvent event) {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
 
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to remove.");
             return;
         }
 
-        album.getPhotos().remove(selectedPhoto);
-        setupPhotoListView();
-        updateUsersList(user);
-        FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-        notifyAlbumChanged();
+        int photoIndex = album.removePhoto(selectedPhoto);
+        DataRepository.getInstance().onPhotoRemoved(selectedPhoto);
+        FileManager.record(JournalEntry.removePhoto(user.getUsername(), albumIndex(album), photoIndex));
+        AlbumEventBus.getInstance().publish(AlbumEvent.photoRemoved(user, album, selectedPhoto, photoIndex));
         showAlert("Photo Removed", "The photo has been removed from the album.");
     }
 
@@ -288,14 +378,14 @@ public class AlbumController {
 
     /**
      * Handles the action event for inspecting a photo.
-     * Retrieves the selected photo from the photoListView and opens a new window to display the photo.
+     * Retrieves the selected photo from the photo grid and opens a new window to display the photo.
      * If no photo is selected, a warning message is displayed.
      *
      * @param event The action event triggered by the inspect photo button.
      */
     @FXML
     private void handleInspectPhoto(ActionEvent event) {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
 
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to inspect.");
@@ -326,40 +416,36 @@ public class AlbumController {
 
     /**
      * Handles the event of adding a tag to a photo.
-     * Retrieves the selected photo from the photoListView and prompts the user to choose a tag type.
+     * Retrieves the selected photo from the photo grid and prompts the user to choose a tag type.
      * Then, prompts the user to enter a tag value for the selected tag type.
-     * Adds the new tag to the selected photo and updates the photoListView.
+     * Adds the new tag to the selected photo and updates the photo grid.
      * Saves the updated data to the file system.
      *
      * @param event the action event triggered by the user
      */
     @FXML
     private void handleAddTagToPhoto(ActionEvent event) {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to add a tag to.");
             return;
         }
     
-        String currentImagePath = selectedPhoto.getImagePath();
-        addTagToMatchingPhotos(currentImagePath, selectedPhoto);
+        addTagToPhoto(selectedPhoto);
     }
     
     /**
-     * Adds a tag to the matching photos based on the given image path and selected photo.
+     * Adds a tag to the image of the selected photo, which every photo of that image shares.
      * If the tag types are empty, it displays an alert message.
      * Prompts the user to select a tag type and enter a tag value.
      * Checks if the selected photo already has a tag with the same type and value, and displays an alert message if so.
      * Checks if the tag type is restricted and if the photo already has an instance of this tag, and displays an alert message if so.
-     * Adds the tag to the matching photos and updates the user's list.
-     * Saves the data and refreshes the photo list view.
+     * Adds the tag and refreshes the photo list view.
      *
-     * @param imagePath     the image path of the photo
      * @param selectedPhoto the selected photo to add the tag to
      */
-    private void addTagToMatchingPhotos(String imagePath, Photo selectedPhoto) {
+    private void addTagToPhoto(Photo selectedPhoto) {
         GlobalTags globalTags = GlobalTags.getInstance();
-        Set<String> restrictedTagTypes = globalTags.getRestrictedTagTypes();
         Set<String> tagTypes = globalTags.getTagTypes();
     
         if (tagTypes.isEmpty()) {
@@ -380,37 +466,23 @@ public class AlbumController {
     
             Optional<String> tagValueResult = tagValueDialog.showAndWait();
             tagValueResult.ifPresent(tagValue -> {
-                Tag newTag = new Tag(tagType, tagValue);
+                Tag newTag = globalTags.tag(tagType, tagValue);
 
-                if (selectedPhoto.getTags().contains(newTag) && !selectedPhoto.getTags().isEmpty()){
+                if (selectedPhoto.hasTag(newTag)){
                     showAlert("Duplicate Tag", "The photo already has a tag with the same type and value.");
                     return;
                 }
 
-                System.out.println("Restricted tag types: " + restrictedTagTypes);
-                if (restrictedTagTypes.contains(tagType)) {
-                    
-                    System.out.println("Restricted tag type");
+                if (globalTags.isTagTypeRestricted(newTag.getTypeId())) {
                     for (Tag existingTag : selectedPhoto.getTags()) {
-                        if (existingTag.getTagName().equals(newTag.getTagName())) {
+                        if (existingTag.getTypeId() == newTag.getTypeId()) {
                             showAlert("Restricted Tag Type", "This photo already has an instance of this tag. You cannot add another tag of this type.");
                             return;
                         }
                     }
                 }
 
-                for (User usr : users) {
-                    for (Album alb : usr.getAlbums()) {
-                        for (Photo photo : alb.getPhotos()) {
-                            if (photo.getImagePath().equals(imagePath) && !photo.getTags().contains(newTag)) {
-                                photo.addTag(newTag);
-                            }
-                        }
-                    }
-                }
-                updateUsersList(user);
-                FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-                photoListView.refresh();
+                DataRepository.getInstance().addTag(selectedPhoto, newTag);
             });
         });
     }
@@ -424,7 +496,7 @@ public class AlbumController {
      */
     @FXML
     private void handleRemoveTagFromPhoto() {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to remove a tag from.");
             return;
@@ -435,35 +507,23 @@ public class AlbumController {
             return;
         }
 
-        String currentImagePath = selectedPhoto.getImagePath();
-        removeTagFromMatchingPhotos(currentImagePath);
+        removeTagFromPhoto(selectedPhoto);
     }
 
     
     /**
-     * Removes a tag from all photos that match the given image path.
+     * Removes a tag from the image of the selected photo, which every photo of that image shares.
      *
-     * @param imagePath the path of the image
+     * @param selectedPhoto the selected photo to remove the tag from
      */
-    private void removeTagFromMatchingPhotos(String imagePath) {
-        ChoiceDialog<Tag> dialog = new ChoiceDialog<>(null, new ArrayList<>(getTagsForImage(imagePath)));
+    private void removeTagFromPhoto(Photo selectedPhoto) {
+        ChoiceDialog<Tag> dialog = new ChoiceDialog<>(null, new ArrayList<>(DataRepository.getInstance().getImage(selectedPhoto).getTags()));
         dialog.setTitle("Remove Tag");
         dialog.setHeaderText("Select a tag to remove:");
         Optional<Tag> result = dialog.showAndWait();
 
         result.ifPresent(tagToRemove -> {
-            for (User usr : users) {
-                for (Album alb : usr.getAlbums()) {
-                    for (Photo photo : alb.getPhotos()) {
-                        if (photo.getImagePath().equals(imagePath)) {
-                            photo.getTags().remove(tagToRemove);
-                        }
-                    }
-                }
-            }
-            updateUsersList(user);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-            photoListView.refresh();
+            DataRepository.getInstance().removeTag(selectedPhoto, tagToRemove);
         });
     }
 
@@ -500,12 +560,9 @@ public class AlbumController {
     
                 Optional<ButtonType> restrictResult = restrictDialog.showAndWait();
     
-                if (restrictResult.isPresent() && restrictResult.get() == buttonYes) {
-                    globalTags.addRestrictedTagType(tagType);
-                }
-    
-                globalTags.addTagType(tagType);
-                FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
+                boolean restricted = restrictResult.isPresent() && restrictResult.get() == buttonYes;
+                globalTags.addTagType(tagType, restricted);
+                FileManager.record(JournalEntry.addTagType(tagType, restricted));
             }
         });
     }
@@ -523,7 +580,7 @@ public class AlbumController {
      */
     @FXML
     private void handleChangeCaption() {
-        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
         if (selectedPhoto == null) {
             showAlert("No Photo Selected", "Please select a photo to change the caption of.");
             return;
@@ -563,13 +620,8 @@ public class AlbumController {
 
         Optional<String> result = dialog.showAndWait();
         result.ifPresent(caption -> {
-            selectedPhoto.setCaption(caption);
-            setDateTime(selectedPhoto);
-            updateUsersList(user);
-            String photoFilePath = selectedPhoto.getImagePath(); // New variable to get the photo's file path
-            changeCaptionForAllMatchingPhotos(photoFilePath, caption);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-            photoListView.refresh();
+            // The caption belongs to the image, so every photo of it shows the change
+            DataRepository.getInstance().setCaption(selectedPhoto, caption);
         });
     }
 
@@ -601,102 +653,194 @@ public class AlbumController {
 
         Stage stage = new Stage();
         stage.setScene(new Scene(root));
+        stage.setOnHidden(e -> slideshowController.close());
         stage.show();
     }
 
-// --------------------------------------------------------------------------------------------
-//                                  HELPERS
+//------------------------------------------------------------------------------------
+//                                 DUPLICATES
 
 
     /**
-     * Displays an alert dialog with the specified title and content.
+     * Handles the action event for finding photos similar to the selected photo.
+     * Searches every user's albums for resized or re-encoded copies of the same image in the
+     * background, then lists them in a message.
      *
-     * @param title   the title of the alert dialog
-     * @param content the content of the alert dialog
+     * @param event the action event triggered by the user
      */
-    private void showAlert(String title, String content) {
-        Alert alert = new Alert(Alert.AlertType.INFORMATION);
-        alert.setTitle(title);
-        alert.setHeaderText(null);
-        alert.setContentText(content);
-        alert.showAndWait();
+    @FXML
+    private void handleFindSimilarPhotos(ActionEvent event) {
+        Photo selectedPhoto = photoGrid.getSelectedPhoto();
+        if (selectedPhoto == null) {
+            showAlert("No Photo Selected", "Please select a photo to find similar photos of.");
+            return;
+        }
+
+        // The first search hashes the whole library, so it runs off the JavaFX thread
+        Thread search = new Thread(() -> {
+            try {
+                List<Photo> similar = DataRepository.getInstance().findNearDuplicates(selectedPhoto, DataRepository.NEAR_DUPLICATE_DISTANCE);
+                StringBuilder content = new StringBuilder();
+                for (Photo photo : similar) {
+                    content.append(photo.getImagePath()).append(" (Caption: ").append(photo.getCaption()).append(")\n");
+                }
+                String message = similar.isEmpty() ? "No similar photos were found." : content.toString();
+                Platform.runLater(() -> showAlert("Similar Photos", message));
+            } catch (IOException e) {
+                Platform.runLater(() -> showAlert("Error", "An error occurred while reading the photo: " + e.getMessage()));
+            }
+        }, "near-duplicate-search");
+        search.setDaemon(true);
+        search.start();
     }
 
-    
+
     /**
-     * Updates the users list by replacing the user with the same username as the updated user.
+     * Handles the action event for the near-duplicate report.
+     * Groups every image in all users' albums with its resized or re-encoded copies in the background
+     * and writes the groups, with the albums that hold each image, to {@code data/near_duplicates.txt}.
      *
-     * @param updatedUser The updated user object.
+     * @param event the action event triggered by the user
      */
-    private void updateUsersList(User updatedUser) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUsername().equals(updatedUser.getUsername())) {
-                users.set(i, updatedUser);
-                break;
+    @FXML
+    private void handleNearDuplicateReport(ActionEvent event) {
+        Thread report = new Thread(() -> {
+            List<List<Photo>> groups = DataRepository.getInstance().findNearDuplicateGroups(DataRepository.NEAR_DUPLICATE_DISTANCE);
+            File file = new File("data/near_duplicates.txt");
+            try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+                int number = 1;
+                for (List<Photo> group : groups) {
+                    out.println("Group " + number++ + ":");
+                    for (Photo photo : group) {
+                        out.println("  " + photo.getImagePath() + " in " + albumsContaining(photo.getImagePath()));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing near-duplicate report: " + e.getMessage());
+                e.printStackTrace();
+                Platform.runLater(() -> showAlert("Error", "An error occurred while writing the report: " + e.getMessage()));
+                return;
             }
-        }
+            Platform.runLater(() -> showAlert("Near-Duplicate Report",
+                    groups.size() + " groups of similar photos were found. The report was written to " + file.getPath() + "."));
+        }, "near-duplicate-report");
+        report.setDaemon(true);
+        report.start();
     }
 
+// --------------------------------------------------------------------------------------------
+//                                  HELPERS
+
 
     /**
-     * Sets the date and time for the given photo to the current date and time.
-     * Refreshes the photo list view.
+     * Lists the albums of all users that contain a photo of an image, as "user/album" names.
      *
-     * @param photo The photo for which to set the date and time.
+     * @param imagePath the image path
+     * @return the album names, comma separated
      */
-    private void setDateTime(Photo photo) {
-        photo.setDate(LocalDateTime.now());
-        photoListView.refresh();
+    private String albumsContaining(String imagePath) {
+        List<String> names = new ArrayList<>();
+        for (User owner : DataRepository.getInstance().getUsers()) {
+            for (Album userAlbum : owner.getAlbums()) {
+                for (Photo photo : userAlbum.getPhotos()) {
+                    if (imagePath.equals(photo.getImagePath())) {
+                        names.add(owner.getUsername() + "/" + userAlbum.getAlbumName());
+                        break;
+                    }
+                }
+            }
+        }
+        return String.join(", ", names);
     }
 
 
-    private void notifyAlbumChanged() {
-        if (listener != null) {
-            listener.onAlbumChanged();
-        }
+    /**
+     * Displays an alert dialog with the specified title and content.
+     *
+     * @param title   the title of the alert dialog
+     * @param content the content of the alert dialog
+     */
+    private void showAlert(String title, String content) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(content);
+        alert.showAndWait();
     }
 
+    
+
 
     /**
-     * Changes the caption for all photos that match the given image path.
+     * Returns the position of the given album in the user's album list, as recorded in the journal.
      *
-     * @param imagePath  the image path to match
-     * @param newCaption the new caption to set
+     * @param album the album to look up
+     * @return the index of the album, or -1 if the user does not own it
      */
-    private void changeCaptionForAllMatchingPhotos(String imagePath, String newCaption) {
-        for (User usr : users) {
-            for (Album alb : usr.getAlbums()) {
-                for (Photo photo : alb.getPhotos()) {
-                    if (photo.getImagePath().equals(imagePath)) {
-                        photo.setCaption(newCaption);
-                    }
-                }
-            }
-        }
-        updateUsersList(user);
-        FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-        photoListView.refresh();
+    private int albumIndex(Album album) {
+        return user.getAlbums().indexOf(album);
     }
 
 
     /**
-     * Retrieves the set of tags associated with a specific image.
+     * Applies album changes to the photo grid. Photos added, removed or moved in this album are
+     * added to or removed from the grid in place; any other change to a photo refills the tiles on
+     * screen, since a caption or tag edit shows on every photo of the image.
+     * Each event is checked against the photo at its position, so one that is already shown is
+     * not applied twice; if an event does not fit the grid, the grid is filled from the album again.
      *
-     * @param imagePath The path of the image.
-     * @return The set of tags associated with the image.
+     * @param events the changes since the last call
      */
-    private Set<Tag> getTagsForImage(String imagePath) {
-        Set<Tag> tags = new HashSet<>();
-        for (User usr : users) {
-            for (Album alb : usr.getAlbums()) {
-                for (Photo photo : alb.getPhotos()) {
-                    if (photo.getImagePath().equals(imagePath)) {
-                        tags.addAll(photo.getTags());
+    @Override
+    public void onAlbumChanged(List<AlbumEvent> events) {
+        ObservableList<Photo> shown = photoGrid.getPhotos();
+        boolean refresh = false;
+        boolean inSync = true;
+        for (AlbumEvent event : events) {
+            Photo photo = event.getPhoto();
+            int index = event.getPhotoIndex();
+            switch (event.getType()) {
+                case PHOTO_ADDED:
+                    if (event.getAlbum() == album) {
+                        // The grid may have been filled after the photo was added
+                        if (index < shown.size() && shown.get(index) == photo) {
+                            break;
+                        }
+                        if (index == shown.size()) {
+                            shown.add(photo);
+                        } else {
+                            inSync = false;
+                        }
                     }
-                }
+                    break;
+                case PHOTO_REMOVED:
+                case PHOTO_MOVED:
+                    if (event.getAlbum() == album) {
+                        if (index < shown.size() && shown.get(index) == photo) {
+                            shown.remove(index);
+                        } else if (shown.contains(photo)) {
+                            inSync = false;
+                        }
+                    } else if (event.getTargetAlbum() == album) {
+                        if (shown.isEmpty() || shown.get(shown.size() - 1) != photo) {
+                            shown.add(photo);
+                        }
+                    }
+                    break;
+                case PHOTO_CHANGED:
+                case TAG_CHANGED:
+                    refresh = true;
+                    break;
+                default:
+                    break;
             }
         }
-        return tags;
+        if (!inSync) {
+            // An event did not match the grid; show the album as it is now
+            shown.setAll(album.getPhotos());
+        } else if (refresh) {
+            photoGrid.refreshTiles();
+        }
     }
 
 
@@ -717,28 +861,6 @@ public class AlbumController {
     }
 
     
-    /**
-     * Finds a duplicate photo in all albums across all users based on the image path.
-     *
-     * This method iterates through each user, their albums, and the photos within those albums
-     * to check if a photo with the same image path as the provided photo already exists.
-     * If a duplicate photo is found, the existing photo is returned; otherwise, null is returned.
-     *
-     * @param photo The photo to check for duplicates.
-     * @return The existing photo with the same image path if a duplicate is found, otherwise null.
-     */
-    private Photo findDuplicateInAllAlbums(Photo photo) {
-        for(User user : users) {
-            for (Album album : user.getAlbums()) {
-                for (Photo existingPhoto : album.getPhotos()) {
-                    if (existingPhoto.getImagePath().equals(photo.getImagePath())) {
-                        return existingPhoto;
-                    }
-                }
-            }
-        }
-        return null;
-    }
     
 
 }
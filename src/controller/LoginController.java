@@ -14,8 +14,7 @@ import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 import model.User;
-import util.FileManager;
-import java.util.List;
+import util.DataRepository;
 
 
 import java.io.IOException;
@@ -33,8 +32,6 @@ public class LoginController {
     @FXML
     private TextField usernameTextField;
 
-    List<User> users;
-
     
     /**
      * Handles the action when the login button is clicked.
@@ -64,9 +61,11 @@ public class LoginController {
         
         else{
 
-            users = FileManager.loadData();
-
-            if (users == null){
+            User loginUser;
+            try {
+                // Only the username directory is read; the user's albums load when first shown
+                loginUser = DataRepository.getInstance().findUser(usernameTextField.getText());
+            } catch (IOException e) {
                 Alert alert = new Alert(Alert.AlertType.ERROR);
                 alert.setTitle("Error");
                 alert.setHeaderText("Error loading data");
@@ -75,20 +74,6 @@ public class LoginController {
                 return;
             }
 
-            if (users.stream().noneMatch(user -> user.getUsername().equals(usernameTextField.getText()))) {
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Error");
-                alert.setHeaderText("Invalid username");
-                alert.setContentText("The username you entered does not exist. Please try again.");
-                alert.showAndWait();
-                return;
-            }
-
-            User loginUser = users.stream()
-                              .filter(user -> user.getUsername().equals(usernameTextField.getText()))
-                              .findFirst()
-                              .orElse(null);
-
             if (loginUser == null) {
                 Alert alert = new Alert(Alert.AlertType.ERROR);
                 alert.setTitle("Error");
@@ -6,25 +6,45 @@
 
 package controller;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.scene.layout.VBox;
+import javafx.util.Duration;
 
 
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
 import java.time.format.DateTimeFormatter;
 
 import model.Photo;
 import model.Tag;
+import util.ContentHashCache;
+import util.ImageMetadata;
+import util.RegionDecoder;
 
 /**
  * The PhotoController class is responsible for controlling the display of a single photo.
+ * <p>
+ * The photo is decoded at the size it is shown at, not at its full resolution. When the user zooms
+ * in past the resolution of that image, only the region in view is decoded again from the file, at
+ * screen resolution, so an open photo never holds more than about two screens of pixels however
+ * large the file is.
  */
 public class PhotoController {
+
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MAX_SCREEN_PIXELS_PER_IMAGE_PIXEL = 2; // How far past 1:1 the user can zoom
+
     @FXML
     private ImageView photoImageView;
     @FXML
@@ -38,15 +58,32 @@ public class PhotoController {
     @FXML
     private ScrollPane captionScrollPane;
 
+    private Image baseImage; // The whole photo at the size it is shown at
+    private File file; // The image file, or null if it is not a local file
+    private double sourceWidth; // Size of the full photo in pixels, or of the base image if unknown
+    private double sourceHeight;
+    private int viewPixels; // Width of the image view in screen pixels
+
+    private double zoom = 1;
+    private double centerX = 0.5; // Center of the view as a fraction of the photo's size
+    private double centerY = 0.5;
+    private double dragX;
+    private double dragY;
+
+    // Decodes the zoomed region once the user stops zooming or panning for a moment
+    private final PauseTransition regionDelay = new PauseTransition(Duration.millis(150));
+    private int regionRequest;
+
     /**
      * Sets the photo to be displayed in the controller.
      *
      * @param photo The photo object to be displayed.
      */
     public void setPhoto(Photo photo) {
-        // Set the photo image
-        Image image = new Image(photo.getImagePath());
+        // Set the photo image, decoded at the width it is shown at
+        Image image = loadBaseImage(photo);
         photoImageView.setImage(image);
+        setupZoom();
 
         // Set the photo caption with ScrollPane
         captionLabel.setText(photo.getCaption());
@@ -78,6 +115,113 @@ public class PhotoController {
     };
     
 
+    /**
+     * Decodes the photo at the width of the image view on this screen, or at its own width if it is
+     * smaller, and reads the size of the full photo from the file header.
+     *
+     * @param photo the photo to load
+     * @return the decoded photo
+     */
+    private Image loadBaseImage(Photo photo) {
+        viewPixels = (int) Math.ceil(photoImageView.getFitWidth() * Screen.getPrimary().getOutputScaleX());
+        file = ContentHashCache.toFile(photo.getImagePath());
+        int width = 0;
+        if (file != null && file.isFile()) {
+            try {
+                ImageMetadata metadata = ImageMetadata.read(file);
+                width = metadata.getWidth();
+                sourceWidth = metadata.getWidth();
+                sourceHeight = metadata.getHeight();
+            } catch (IOException e) {
+                System.err.println("Error reading image: " + e.getMessage());
+            }
+        }
+        baseImage = new Image(photo.getImagePath(), width > 0 ? Math.min(width, viewPixels) : viewPixels, 0, true, true, false);
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            // Regions can only be decoded when the full size is known
+            file = null;
+            sourceWidth = baseImage.getWidth();
+            sourceHeight = baseImage.getHeight();
+        }
+        return baseImage;
+    }
+
+    /**
+     * Lets the user zoom with the scroll wheel, pan by dragging and return to the whole photo with a double click.
+     */
+    private void setupZoom() {
+        Tooltip.install(photoImageView, new Tooltip("Scroll to zoom, drag to move, double-click to see the whole photo"));
+        photoImageView.setOnScroll(event -> {
+            double maxZoom = Math.max(1, MAX_SCREEN_PIXELS_PER_IMAGE_PIXEL * sourceWidth / viewPixels);
+            double factor = event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP;
+            zoom = Math.max(1, Math.min(maxZoom, zoom * factor));
+            updateView();
+            event.consume();
+        });
+        photoImageView.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+            if (event.getClickCount() == 2) {
+                zoom = 1;
+                updateView();
+            }
+        });
+        photoImageView.setOnMouseDragged(event -> {
+            double width = Math.max(1, photoImageView.getLayoutBounds().getWidth());
+            double height = Math.max(1, photoImageView.getLayoutBounds().getHeight());
+            centerX -= (event.getX() - dragX) / width / zoom;
+            centerY -= (event.getY() - dragY) / height / zoom;
+            dragX = event.getX();
+            dragY = event.getY();
+            updateView();
+        });
+        regionDelay.setOnFinished(event -> decodeRegion());
+    }
+
+    /**
+     * Shows the part of the photo selected by the zoom and position. The base image is cropped at
+     * once; if it has fewer pixels than the view in that region, the region is then decoded again
+     * from the file at screen resolution.
+     */
+    private void updateView() {
+        double regionWidth = sourceWidth / zoom;
+        double regionHeight = sourceHeight / zoom;
+        double x = Math.max(0, Math.min(sourceWidth - regionWidth, centerX * sourceWidth - regionWidth / 2));
+        double y = Math.max(0, Math.min(sourceHeight - regionHeight, centerY * sourceHeight - regionHeight / 2));
+        centerX = (x + regionWidth / 2) / sourceWidth;
+        centerY = (y + regionHeight / 2) / sourceHeight;
+
+        double scale = baseImage.getWidth() / sourceWidth;
+        regionRequest++;
+        photoImageView.setImage(baseImage);
+        photoImageView.setViewport(zoom == 1 ? null : new Rectangle2D(x * scale, y * scale, regionWidth * scale, regionHeight * scale));
+        if (file != null && regionWidth * scale < viewPixels) {
+            regionDelay.playFromStart();
+        } else {
+            regionDelay.stop();
+        }
+    }
+
+    private void decodeRegion() {
+        double regionWidth = sourceWidth / zoom;
+        double regionHeight = sourceHeight / zoom;
+        Rectangle region = new Rectangle(
+                (int) Math.floor(centerX * sourceWidth - regionWidth / 2),
+                (int) Math.floor(centerY * sourceHeight - regionHeight / 2),
+                (int) Math.ceil(regionWidth),
+                (int) Math.ceil(regionHeight));
+        int request = regionRequest;
+        RegionDecoder.decodeAsync(file, region, viewPixels).whenComplete((image, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                // Keep showing the enlarged base image
+                System.err.println("Error decoding image region: " + error.getMessage());
+            } else if (request == regionRequest) {
+                photoImageView.setViewport(null);
+                photoImageView.setImage(image);
+            }
+        }));
+    }
+
     /**
      * Adjusts the size of the stage based on the dimensions of the displayed image and other UI elements.
      * 
@@ -17,7 +17,6 @@ import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
-import javafx.scene.image.Image;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import javafx.scene.image.ImageView;
@@ -25,17 +24,22 @@ import javafx.scene.Node;
 import model.Album;
 import model.Photo;
 import model.User;
+import util.AlbumEvent;
+import util.AlbumEventBus;
+import util.DataRepository;
 import util.FileManager;
 import util.GlobalTags;
+import util.JournalEntry;
+import util.PhotoQuery;
+import util.ThumbnailCache;
 
 import java.io.IOException;
+import java.text.ParseException;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * The SearchController class is responsible for handling search operations in the application.
@@ -49,6 +53,8 @@ public class SearchController {
     @FXML
     private TextField tagTypeField1, tagValueField1, tagTypeField2, tagValueField2;
     @FXML
+    private TextField queryField;
+    @FXML
     private ListView<Photo> photoListView;
     @FXML
     private VBox tagSearchVBox;
@@ -58,17 +64,14 @@ public class SearchController {
     private ComboBox<String> tagTypeComboBox2;
 
 
-    private List<User> users; 
     private User user;
 
     /**
      * Initializes the data for the SearchController.
      * 
-     * @param users The list of users.
      * @param user The current user.
      */
-    public void initData(List<User> users, User user) {
-        this.users = users;
+    public void initData(User user) {
         this.user = user;
         setupPhotoListView();
         populateTagTypeComboBoxes();
@@ -87,9 +90,8 @@ public class SearchController {
                 if (empty || photo == null) {
                     setGraphic(null);
                 } else {
-                    String imagePath = photo.getImagePath();
-                    Image image = new Image(imagePath, 50, 50, true, true); // Thumbnail size 50x50
-                    imageView.setImage(image);
+                    // Thumbnail size 50x50, decoded in the background
+                    ThumbnailCache.getInstance().show(imageView, photo.getImagePath(), 50);
     
                     setGraphic(imageView);
                 }
@@ -126,19 +128,10 @@ public class SearchController {
      * @return A list of photos that fall within the specified date range.
      */
     private List<Photo> searchPhotosByDateRange(LocalDate startDate, LocalDate endDate) {
-        // Convert LocalDate to LocalDateTime at the start and end of the day
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.atTime(23, 59, 59);
-
-        List<Photo> results = new ArrayList<>();
-        for (User user : users) {
-            for (Album album : user.getAlbums()) {
-                results.addAll(album.getPhotos().stream()
-                        .filter(photo -> !photo.getDate().isBefore(startDateTime) && !photo.getDate().isAfter(endDateTime))
-                        .collect(Collectors.toList()));
-            }
-        }
-        return results;
+        // The range covers every moment of the end date
+        DataRepository repository = DataRepository.getInstance();
+        int[] ids = repository.getDateIndex().range(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay());
+        return repository.getPhotoRegistry().photos(ids);
     }
 
 
@@ -164,22 +157,14 @@ public class SearchController {
 
     /**
      * Searches for photos based on a specific tag.
+     * The lookup goes through the shared tag index instead of scanning every photo.
      *
      * @param tagType   the type of tag to search for
      * @param tagValue  the value of the tag to search for
      * @return a list of photos that match the specified tag
      */
     private List<Photo> searchPhotosByTag(String tagType, String tagValue) {
-        List<Photo> results = new ArrayList<>();
-        for (User user : users) {
-            for (Album album : user.getAlbums()) {
-                results.addAll(album.getPhotos().stream()
-                        .filter(photo -> photo.getTags().stream()
-                                .anyMatch(tag -> tag.getTagName().equalsIgnoreCase(tagType) && tag.getTagValue().equalsIgnoreCase(tagValue)))
-                        .collect(Collectors.toList()));
-            }
-        }
-        return results;
+        return DataRepository.getInstance().getTagIndex().search(tagType, tagValue);
     }
 
     /**
@@ -199,10 +184,7 @@ public class SearchController {
             return;
         }
 
-        List<Photo> results = searchPhotosByTag(tagType1, tagValue1).stream()
-                .filter(photo -> photo.getTags().stream()
-                        .anyMatch(tag -> tag.getTagName().equalsIgnoreCase(tagType2) && tag.getTagValue().equalsIgnoreCase(tagValue2)))
-                .collect(Collectors.toList());
+        List<Photo> results = DataRepository.getInstance().getTagIndex().searchAnd(tagType1, tagValue1, tagType2, tagValue2);
 
         photoListView.setItems(FXCollections.observableArrayList(results));
     }
@@ -226,11 +208,34 @@ public class SearchController {
             return;
         }
 
-        List<Photo> results = new ArrayList<>();
-        results.addAll(searchPhotosByTag(tagType1, tagValue1));
-        results.addAll(searchPhotosByTag(tagType2, tagValue2));
-        results = results.stream().distinct().collect(Collectors.toList());
+        List<Photo> results = DataRepository.getInstance().getTagIndex().searchOr(tagType1, tagValue1, tagType2, tagValue2);
+
+        photoListView.setItems(FXCollections.observableArrayList(results));
+    }
+
+    /**
+     * Handles a search written in the query language, for example
+     * {@code person=alice AND (place=paris OR place=rome) AND date:2024-01..2024-06}.
+     * If the query cannot be parsed, an error message points at the problem.
+     * Otherwise, the matching photos are displayed in the photo list view.
+     */
+    @FXML
+    private void handleQuerySearch() {
+        String text = queryField.getText();
+        if (text == null || text.isBlank()) {
+            showAlert("Invalid Query", "Please enter a search query.");
+            return;
+        }
+
+        PhotoQuery query;
+        try {
+            query = PhotoQuery.parse(text);
+        } catch (ParseException e) {
+            showAlert("Invalid Query", e.getMessage() + " (at position " + (e.getErrorOffset() + 1) + ").");
+            return;
+        }
 
+        List<Photo> results = DataRepository.getInstance().search(query);
         photoListView.setItems(FXCollections.observableArrayList(results));
     }
 
@@ -266,7 +271,9 @@ public class SearchController {
             }
             
             Album newAlbum = new Album(albumName);
-            newAlbum.getPhotos().addAll(selectedPhotos);
+            for (Photo photo : selectedPhotos) {
+                newAlbum.addPhoto(photo);
+            }
             addUserAlbum(newAlbum);
             showAlert("Album Created", "A new album has been created with the selected photos.");
         });
@@ -293,26 +300,16 @@ public class SearchController {
      */
     private void addUserAlbum(Album newAlbum) {
 
-        user.getAlbums().add(newAlbum);
-        updateUsersList(user);
-
-        FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-    }
-
-    /**
-     * Updates the users list by replacing the user with the specified updated user.
-     *
-     * @param updatedUser The updated user object.
-     */
-    private void updateUsersList(User updatedUser) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUsername().equals(updatedUser.getUsername())) {
-                users.set(i, updatedUser);
-                break;
-            }
+        int albumIndex = user.addAlbum(newAlbum);
+        FileManager.record(JournalEntry.addAlbum(user.getUsername(), newAlbum.getAlbumName()));
+        for (Photo photo : newAlbum.getPhotos()) {
+            DataRepository.getInstance().onPhotoAdded(photo);
+            FileManager.record(JournalEntry.addPhoto(user.getUsername(), albumIndex, photo));
         }
+        AlbumEventBus.getInstance().publish(AlbumEvent.albumAdded(user, newAlbum));
     }
 
+
     /**
      * Handles the action event when the user clicks on the "Back to Dashboard" button.
      * It loads the UserDashScene.fxml file and sets it as the scene for the current stage.
@@ -328,8 +325,7 @@ public class SearchController {
     
             // Retrieve the UserController and call the method that refreshes the album list
             UserController userController = loader.getController();
-            userController.initSession(user); // Assume this method sets the user and refreshes the album list
-            userController.onAlbumChanged(); // Explicitly call the method to refresh the albums list
+            userController.initSession(user); // Sets the user and fills the album list
     
             Scene userDashboardScene = new Scene(userDashboard);
     
@@ -5,15 +5,30 @@
 
 package controller;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javafx.animation.FadeTransition;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Pagination;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
+import javafx.stage.Screen;
+import javafx.util.Duration;
 import model.Album;
 import model.Photo;
+import util.ImageCache;
 
 
 
@@ -21,13 +36,48 @@ import model.Photo;
 /**
  * The SlideshowController class is responsible for controlling the slideshow functionality
  * and displaying the photos in an album using a pagination control.
+ * <p>
+ * The slideshow can also play by itself, showing the next photo after each interval. While playing,
+ * photos are decoded far enough ahead that each one is ready by the time it is due: the number of
+ * pages prefetched follows the measured decode time. A photo that is still not ready when it is due
+ * is dropped, and the slideshow moves on to the next photo that is ready instead of waiting for it;
+ * if decoding cannot keep up with the interval, photos are decoded at a lower resolution. The number
+ * of shown and dropped frames is displayed so the interval can be tuned for slow machines.
  */
 public class SlideshowController {
     
     @FXML
     private Pagination pagination;
+    @FXML
+    private Button playButton;
+    @FXML
+    private Spinner<Integer> intervalSpinner;
+    @FXML
+    private ChoiceBox<String> transitionChoice;
+    @FXML
+    private Label statsLabel;
     private Album album; // The album you're displaying
 
+    private static final int FIT_HEIGHT = 300;
+    private static final int PREFETCH_PAGES = 2; // Pages decoded ahead of and behind the current page
+    private static final int MAX_PREFETCH_PAGES = 8; // Most pages decoded ahead while playing
+    private static final int[] QUALITY_PERCENT = { 100, 67, 50 }; // Decode heights used when decoding is too slow
+    private static final long CACHE_BYTES = 64L * 1024 * 1024;
+
+    // Decoded pages of this slideshow, dropped when it is closed
+    private final ImageCache pages = new ImageCache(CACHE_BYTES);
+
+    private int fullDecodeHeight;
+    private int decodeHeight;
+
+    // Auto-play
+    private PauseTransition timer;
+    private boolean playing;
+    private int prefetchAhead = PREFETCH_PAGES;
+    private int quality; // Index into QUALITY_PERCENT
+    private int shownFrames;
+    private int droppedFrames;
+
 
     
     /**
@@ -37,6 +87,12 @@ public class SlideshowController {
      */
     public void initData(Album album) {
         this.album = album;
+        // Decode at the pixel height of the screen, which is larger than FIT_HEIGHT on scaled displays
+        fullDecodeHeight = (int) Math.ceil(FIT_HEIGHT * Screen.getPrimary().getOutputScaleY());
+        decodeHeight = fullDecodeHeight;
+        intervalSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 60, 3));
+        transitionChoice.setItems(FXCollections.observableArrayList("None", "Fade"));
+        transitionChoice.setValue("Fade");
         setupPagination();
     }
 
@@ -69,7 +125,8 @@ public class SlideshowController {
 
     /**
      * Creates a VBox container to hold the image view for a slideshow page.
-     * The VBox is aligned to the center.
+     * The VBox is aligned to the center. The image is decoded in the background at the size it is
+     * shown at, together with the pages around it, so flipping to a nearby page shows it at once.
      *
      * @param pageIndex The index of the photo in the album to display.
      * @return The created VBox container.
@@ -77,16 +134,163 @@ public class SlideshowController {
     private VBox createPage(int pageIndex) {
         VBox box = new VBox();
         box.setAlignment(Pos.CENTER); // Set the alignment of the VBox to center
+        box.setMinHeight(FIT_HEIGHT);
 
-        Photo photo = album.getPhotos().get(pageIndex);
-        ImageView imageView = new ImageView(new Image(photo.getImagePath()));
-        
+        List<Photo> photos = album.getPhotos();
+        ImageView imageView = new ImageView();
         imageView.setPreserveRatio(true); // Preserve the aspect ratio
-        imageView.setFitHeight(300); // Set the preferred height (adjust as necessary)
+        imageView.setFitHeight(FIT_HEIGHT); // Set the preferred height (adjust as necessary)
         // You can also set imageView.setFitWidth if you want to limit the width
 
+        // The current page first, then its neighbours nearest first. While playing, the pages
+        // ahead wrap around to the start of the album and only one page behind is kept.
+        List<String> window = new ArrayList<>();
+        window.add(photos.get(pageIndex).getImagePath());
+        int behind = playing ? 1 : PREFETCH_PAGES;
+        for (int distance = 1; distance <= Math.max(prefetchAhead, behind); distance++) {
+            int ahead = playing ? (pageIndex + distance) % photos.size() : pageIndex + distance;
+            if (distance <= prefetchAhead && ahead < photos.size() && ahead != pageIndex) {
+                window.add(photos.get(ahead).getImagePath());
+            }
+            if (distance <= behind && pageIndex - distance >= 0) {
+                window.add(photos.get(pageIndex - distance).getImagePath());
+            }
+        }
+        CompletableFuture<Image> image = pages.load(window.get(0), decodeHeight);
+        pages.prefetch(window, decodeHeight);
+
+        Image ready = image.getNow(null);
+        if (ready != null) {
+            show(imageView, ready);
+        } else {
+            image.thenAccept(loaded -> {
+                if (loaded != null) {
+                    Platform.runLater(() -> show(imageView, loaded));
+                }
+            });
+        }
+
         box.getChildren().add(imageView);
 
         return box;
     }
+
+    private void show(ImageView imageView, Image image) {
+        imageView.setImage(image);
+        if (playing && "Fade".equals(transitionChoice.getValue())) {
+            FadeTransition fade = new FadeTransition(Duration.millis(Math.min(400, intervalMillis() / 4)), imageView);
+            fade.setFromValue(0);
+            fade.setToValue(1);
+            fade.play();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  AUTO-PLAY
+
+    /**
+     * Handles the Play / Pause button, starting or stopping the automatic slideshow.
+     */
+    @FXML
+    private void handlePlayPause() {
+        if (playing) {
+            stop();
+        } else {
+            play();
+        }
+    }
+
+    private void play() {
+        if (album == null || album.getPhotos().isEmpty()) {
+            return;
+        }
+        playing = true;
+        shownFrames = 0;
+        droppedFrames = 0;
+        playButton.setText("Pause");
+        adapt(false);
+        // Recreate the current page so the pages ahead are prefetched for playing
+        pagination.setPageFactory(this::createPage);
+        scheduleNext();
+    }
+
+    private void stop() {
+        if (!playing) {
+            return;
+        }
+        playing = false;
+        if (timer != null) {
+            timer.stop();
+        }
+        playButton.setText("Play");
+    }
+
+    private void scheduleNext() {
+        timer = new PauseTransition(Duration.millis(intervalMillis()));
+        timer.setOnFinished(e -> advance());
+        timer.play();
+    }
+
+    // Shows the next page when it is due, or the first page after it that is ready
+    private void advance() {
+        if (!playing) {
+            return;
+        }
+        List<Photo> photos = album.getPhotos();
+        int current = pagination.getCurrentPageIndex();
+        int target = -1;
+        int dropped = 0;
+        for (int step = 1; step <= Math.max(1, prefetchAhead) && step < Math.max(2, photos.size()); step++) {
+            int index = (current + step) % photos.size();
+            if (pages.load(photos.get(index).getImagePath(), decodeHeight).getNow(null) != null) {
+                target = index;
+                break;
+            }
+            dropped++;
+        }
+        droppedFrames += dropped;
+        adapt(dropped > 0);
+        if (target >= 0) {
+            shownFrames++;
+            if (target == current) {
+                pagination.setPageFactory(this::createPage);
+            } else {
+                pagination.setCurrentPageIndex(target);
+            }
+        }
+        statsLabel.setText(statsText());
+        scheduleNext();
+    }
+
+    // Sets the prefetch depth and decode resolution from the measured decode time
+    private void adapt(boolean late) {
+        double decodeMillis = pages.getAverageDecodeMillis();
+        long interval = intervalMillis();
+        // Enough pages ahead that a page started now is decoded before it is due, plus one spare
+        prefetchAhead = (int) Math.min(MAX_PREFETCH_PAGES, Math.ceil(decodeMillis / interval) + 1);
+        if (late && decodeMillis > interval * 0.75 && quality < QUALITY_PERCENT.length - 1) {
+            quality++;
+        } else if (!late && decodeMillis < interval * 0.25 && quality > 0) {
+            quality--;
+        }
+        decodeHeight = fullDecodeHeight * QUALITY_PERCENT[quality] / 100;
+    }
+
+    private long intervalMillis() {
+        Integer seconds = intervalSpinner.getValue();
+        return (seconds == null ? 3 : seconds) * 1000L;
+    }
+
+    private String statsText() {
+        return String.format("Shown: %d  Dropped: %d  Decode: %.0f ms  Prefetch: %d  Quality: %d%%",
+                shownFrames, droppedFrames, pages.getAverageDecodeMillis(), prefetchAhead, QUALITY_PERCENT[quality]);
+    }
+
+    /**
+     * Stops the slideshow and drops the decoded pages. Called when the slideshow window is closed.
+     */
+    public void close() {
+        stop();
+        pages.clear();
+    }
 }
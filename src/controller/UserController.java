@@ -8,6 +8,7 @@
 package controller;
 
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -23,14 +24,20 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import model.Album;
+import model.Photo;
 import model.User;
+import util.DataRepository;
 import util.FileManager;
-import util.GlobalTags;
+import util.JournalEntry;
 import util.AlbumChangeListener;
+import util.AlbumEvent;
+import util.AlbumEventBus;
 
 import java.io.IOException;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import javafx.scene.control.ListView;
 
@@ -67,7 +74,6 @@ import javafx.scene.control.ListView;
     private TextField albumNameField;
 
     private User user;
-    private List<User> users;
 
     @FXML
     private ListView<Album> albumListView; 
@@ -76,7 +82,6 @@ import javafx.scene.control.ListView;
     /**
      * Initializes the user session.
      * Sets the user, updates the welcome label, and populates the album list view.
-     * Loads user data from the file manager.
      *
      * @param user The user object representing the current user.
      */
@@ -84,7 +89,7 @@ import javafx.scene.control.ListView;
         this.user = user;
         welcomeLabel.setText("Welcome, " + user.getUsername() + "!");
         albumListView.setItems(FXCollections.observableArrayList(user.getAlbums()));
-        users = FileManager.loadData();
+        AlbumEventBus.getInstance().subscribe(this);
     }
     
 
@@ -114,13 +119,14 @@ import javafx.scene.control.ListView;
 
             // Get the controller for the AlbumViewScene
             AlbumController albumViewController = loader.getController();
-            albumViewController.initData(selectedAlbum, users , user, this); // Method to initialize data in AlbumViewController
+            albumViewController.initData(selectedAlbum, user); // Method to initialize data in AlbumViewController
 
             // Create the new scene and display it in a new window or dialog
             Scene albumViewScene = new Scene(albumViewRoot);
             Stage albumStage = new Stage();
             albumStage.setTitle("Album View");
             albumStage.setScene(albumViewScene);
+            albumStage.setOnHidden(e -> albumViewController.close());
 
             albumStage.initModality(Modality.WINDOW_MODAL);
             albumStage.initOwner(((Node) event.getSource()).getScene().getWindow());
@@ -166,10 +172,9 @@ import javafx.scene.control.ListView;
                 alert.showAndWait();
             } else {
                 Album newAlbum = new Album(name);
-                user.getAlbums().add(newAlbum); // Add new album to user's album list
-                albumListView.getItems().add(newAlbum); // Update ListView
-                updateUsersList(user);
-                FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
+                user.addAlbum(newAlbum); // Add new album to user's album list
+                FileManager.record(JournalEntry.addAlbum(user.getUsername(), name));
+                AlbumEventBus.getInstance().publish(AlbumEvent.albumAdded(user, newAlbum)); // Update ListView
             }
         });
     }
@@ -196,11 +201,9 @@ import javafx.scene.control.ListView;
             Optional<String> result = dialog.showAndWait();
             result.ifPresent(name -> {
                 selectedAlbum.setAlbumName(name);
-                albumListView.refresh();
+                FileManager.record(JournalEntry.renameAlbum(user.getUsername(), user.getAlbums().indexOf(selectedAlbum), name));
+                AlbumEventBus.getInstance().publish(AlbumEvent.albumRenamed(user, selectedAlbum));
             });
-            updateUsersList(user);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
-;
         }
         
     }
@@ -217,12 +220,14 @@ import javafx.scene.control.ListView;
         Album selectedAlbum = albumListView.getSelectionModel().getSelectedItem();
         if (selectedAlbum != null) {
             // Call the method to remove all photos from the album
+            for (Photo photo : selectedAlbum.getPhotos()) {
+                DataRepository.getInstance().onPhotoRemoved(photo);
+            }
             selectedAlbum.removeAllPhotos();
             
-            user.getAlbums().remove(selectedAlbum); // Remove the album from the user's album list
-            albumListView.getItems().remove(selectedAlbum); // Update the ListView
-            updateUsersList(user);
-            FileManager.saveData(users, GlobalTags.getInstance().getTagTypes(), GlobalTags.getInstance().getRestrictedTagTypes());
+            int albumIndex = user.removeAlbum(selectedAlbum); // Remove the album from the user's album list
+            FileManager.record(JournalEntry.removeAlbum(user.getUsername(), albumIndex));
+            AlbumEventBus.getInstance().publish(AlbumEvent.albumRemoved(user, selectedAlbum)); // Update the ListView
     
             showAlert("Album Deleted", "The album and all its photos have been deleted.");
         } else {
@@ -233,13 +238,15 @@ import javafx.scene.control.ListView;
 
     /**
      * Handles the action when the logout button is clicked.
-     * This method changes the scene to the login scene.
+     * This method writes any pending edits and changes the scene to the login scene.
      *
      * @param event the action event triggered by the logout button
      * @throws Exception if an error occurs while loading the login scene
      */
     @FXML
     private void handleLogoutButtonAction(ActionEvent event) throws Exception {
+        DataRepository.getInstance().flush(); // Write pending edits before leaving the session
+        AlbumEventBus.getInstance().unsubscribe(this);
         Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
         Parent root = FXMLLoader.load(getClass().getResource("/view/LoginScene.fxml"));
         stage.setScene(new Scene(root));
@@ -266,12 +273,13 @@ import javafx.scene.control.ListView;
             // Get the current stage from the event source
             Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 
-            // Set the new scene to the stage
+            // Set the new scene to the stage; the search page makes its own dashboard when it returns
             stage.setScene(searchScene);
+            AlbumEventBus.getInstance().unsubscribe(this);
 
             // Optionally, initialize data for the search controller
             SearchController searchController = loader.getController();
-            searchController.initData(users, user);
+            searchController.initData(user);
 
             stage.show();
         } catch (IOException e) {
@@ -282,29 +290,48 @@ import javafx.scene.control.ListView;
 
     
   
-    /**
-     * Updates the 'users' list by replacing the old user object with the updated one.
-     * 
-     * @param updatedUser The updated user object.
-     */
-    private void updateUsersList(User updatedUser) {
-        // Replace the old user object with the updated one in the 'users' list
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUsername().equals(updatedUser.getUsername())) {
-                users.set(i, updatedUser);
-                break;
-            }
-        }
-    }
 
     /**
-     * This method is called when the album is changed.
-     * It refreshes the ListView with the updated albums.
+     * This method is called when albums have changed.
+     * Albums of this user that were added or removed are added to or removed from the ListView, and
+     * the rows of albums that were renamed or whose photos changed are redrawn, each once.
+     *
+     * @param events the changes since the last call
      */
     @Override
-    public void onAlbumChanged() {
-        // Refresh the ListView
-        albumListView.getItems().setAll(user.getAlbums());
+    public void onAlbumChanged(List<AlbumEvent> events) {
+        ObservableList<Album> items = albumListView.getItems();
+        Set<Album> changed = new LinkedHashSet<>();
+        for (AlbumEvent event : events) {
+            if (event.getUser() != user) {
+                continue;
+            }
+            switch (event.getType()) {
+                case ALBUM_ADDED:
+                    // A new dashboard may already list an album added just before it opened
+                    if (!items.contains(event.getAlbum())) {
+                        items.add(event.getAlbum());
+                    }
+                    break;
+                case ALBUM_REMOVED:
+                    items.remove(event.getAlbum());
+                    changed.remove(event.getAlbum());
+                    break;
+                default:
+                    // The row shows the name, photo count and date range of the album
+                    changed.add(event.getAlbum());
+                    if (event.getTargetAlbum() != null) {
+                        changed.add(event.getTargetAlbum());
+                    }
+                    break;
+            }
+        }
+        for (Album album : changed) {
+            int index = items.indexOf(album);
+            if (index >= 0) {
+                items.set(index, album);
+            }
+        }
     }
 
     /**
@@ -1,15 +1,31 @@
 package model;
 
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Comparator;
-import java.util.Optional;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import util.DateIndex;
 
 /**
  * Represents an Album with attributes.
- * 
+ * <p>
+ * The album keeps summary figures about its photos (the oldest and newest date, the total size of
+ * the image files and how many photos carry each tag) and updates them as photos are added and
+ * removed, so showing the album in a list does not go through its photos.
+ * <p>
+ * An album may be changed and read from any thread. Changes lock the album itself, so work on
+ * different albums never waits. {@link #getPhotos()} returns an unchangeable copy of the photo list
+ * that is made once after each change and shared by all readers, so a reader can iterate it, for
+ * instance to save or search, while photos are being added, and sees the album as it was.
+ *
  * @author Marc Rizzolo
  */
 
@@ -17,8 +33,22 @@ import java.util.List;
 public class Album implements Serializable{
     private static final long serialVersionUID = 1L;
 
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM-dd-yyyy HH:mm:ss");
+
     private String albumName;
     private List<Photo> photos;
+    // The copy of the photo list handed to readers, or null after a change
+    private transient volatile List<Photo> snapshot;
+    // Sorted photo dates for the oldest and newest date, built on first use
+    private transient DateIndex dates;
+    // Total size of the image files, or -1 until first asked for
+    private transient long totalBytes = -1;
+    // Number of photos carrying each tag, and number of photos of each image they were counted from;
+    // both built on first use and then updated as photos are added and removed and tags are edited
+    private transient Map<Tag, Integer> tagCounts;
+    private transient Map<String, Integer> imageCounts;
+    // The text shown in album lists, made again after any change
+    private transient String summary;
 
 
     public Album(String albumName) {
@@ -26,56 +56,270 @@ public class Album implements Serializable{
         this.photos = new ArrayList<Photo>();
     }
 
-    public String getAlbumName() {
+    public synchronized String getAlbumName() {
         return albumName;
     }
 
-    public void setAlbumName(String name) {
+    public synchronized void setAlbumName(String name) {
         this.albumName = name;
+        this.summary = null;
     }
 
+    /**
+     * Returns the photos of the album, in order. The list cannot be changed and does not follow
+     * later changes to the album.
+     *
+     * @return the photos
+     */
     public List<Photo> getPhotos() {
-        return this.photos;
+        List<Photo> current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = Collections.unmodifiableList(new ArrayList<>(photos));
+                }
+                current = snapshot;
+            }
+        }
+        return current;
     }
 
-    public int getNumPhotos() {
+    public synchronized int getNumPhotos() {
         return this.photos.size();
     }
 
-    public void addPhoto(Photo photo) {
+    /**
+     * Adds a photo at the end of the album.
+     *
+     * @param photo the photo to add
+     * @return the position of the photo
+     */
+    public synchronized int addPhoto(Photo photo) {
         this.photos.add(photo);
+        if (dates != null) {
+            dates.add(photo.getDate(), 0);
+        }
+        if (totalBytes >= 0) {
+            totalBytes += photo.getImage().getFileSize();
+        }
+        if (tagCounts != null) {
+            count(photo, 1);
+        }
+        changed();
+        return photos.size() - 1;
+    }
+
+    /**
+     * Removes a photo from the album.
+     *
+     * @param photo the photo to remove
+     * @return the position the photo had, or -1 if it was not in the album
+     */
+    public synchronized int removePhoto(Photo photo) {
+        int index = photos.indexOf(photo);
+        if (index >= 0) {
+            removePhoto(index);
+        }
+        return index;
+    }
+
+    /**
+     * Removes the photo at the given position.
+     *
+     * @param index the position of the photo
+     * @return the removed photo
+     */
+    public synchronized Photo removePhoto(int index) {
+        Photo photo = photos.remove(index);
+        if (dates != null) {
+            dates.remove(photo.getDate(), 0);
+        }
+        if (totalBytes >= 0) {
+            totalBytes -= photo.getImage().getFileSize();
+        }
+        if (tagCounts != null) {
+            count(photo, -1);
+        }
+        changed();
+        return photo;
+    }
+
+    public synchronized void removeAllPhotos() {
+        photos.clear();
+        dates = null;
+        totalBytes = -1;
+        tagCounts = null;
+        imageCounts = null;
+        changed();
+    }
+
+    /**
+     * Updates the album after the date of one of its photos was changed.
+     *
+     * @param photo   the photo whose date changed
+     * @param oldDate the date the photo had before
+     */
+    public synchronized void photoDateChanged(Photo photo, LocalDateTime oldDate) {
+        if (dates != null && photos.contains(photo)) {
+            dates.update(oldDate, photo.getDate(), 0);
+            summary = null;
+        }
+    }
+
+    // Drops the copies made for readers; called with the lock held
+    private void changed() {
+        snapshot = null;
+        summary = null;
+    }
+
+    private DateIndex dates() {
+        if (dates == null) {
+            dates = new DateIndex();
+            for (Photo photo : photos) {
+                dates.add(photo.getDate(), 0);
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Returns the date of the oldest photo in the album.
+     *
+     * @return the oldest date, or null if no photo has a date
+     */
+    public synchronized LocalDateTime getOldestDate() {
+        return dates().min();
     }
 
-    public void removePhoto(Photo photo) {
-        if (photos.contains(photo)) {
-            photos.add(photo);
+    /**
+     * Returns the date of the newest photo in the album.
+     *
+     * @return the newest date, or null if no photo has a date
+     */
+    public synchronized LocalDateTime getNewestDate() {
+        return dates().max();
+    }
+
+    /**
+     * Returns the total size of the image files of the album's photos. The first call reads the
+     * size of each file; later calls are answered from the running total.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getTotalBytes() {
+        if (totalBytes < 0) {
+            long total = 0;
+            for (Photo photo : photos) {
+                total += photo.getImage().getFileSize();
+            }
+            totalBytes = total;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Returns how many of the album's photos carry each tag.
+     *
+     * @return the number of photos for each tag that at least one photo has, which does not follow
+     *         later changes
+     */
+    public synchronized Map<Tag, Integer> getTagCounts() {
+        if (tagCounts == null) {
+            tagCounts = new HashMap<>();
+            imageCounts = new HashMap<>();
+            for (Photo photo : photos) {
+                count(photo, 1);
+            }
+        }
+        return Collections.unmodifiableMap(new HashMap<>(tagCounts));
+    }
+
+    // Adds a photo to the tag counts, or takes it out with a change of -1; called with the lock held
+    private void count(Photo photo, int change) {
+        imageCounts.merge(photo.getImagePath(), change, Album::sumOrRemove);
+        for (Tag tag : photo.getTags()) {
+            tagCounts.merge(tag, change, Album::sumOrRemove);
+        }
+    }
+
+    // Merges counts, removing the entry when it drops to zero
+    private static Integer sumOrRemove(Integer count, Integer change) {
+        int sum = count + change;
+        return sum == 0 ? null : sum;
+    }
+
+    /**
+     * Updates the tag counts after a tag was added to or removed from an image, which changes every
+     * photo of the image in this album.
+     *
+     * @param imagePath the path of the image
+     * @param tag       the tag
+     * @param added     true if the tag was added, false if it was removed
+     */
+    public synchronized void tagChanged(String imagePath, Tag tag, boolean added) {
+        if (tagCounts == null) {
+            return;
+        }
+        Integer photosOfImage = imageCounts.get(imagePath);
+        if (photosOfImage != null) {
+            tagCounts.merge(tag, added ? photosOfImage : -photosOfImage, Album::sumOrRemove);
+        }
+    }
+
+    /**
+     * Updates the album after the photos of an image started sharing one image record, which may
+     * give some of them tags they did not have. The tag counts are counted again on next use if the
+     * album has a photo of the image.
+     *
+     * @param imagePath the path of the image
+     */
+    public synchronized void imageShared(String imagePath) {
+        if (imageCounts != null && imageCounts.containsKey(imagePath)) {
+            tagCounts = null;
+            imageCounts = null;
         }
     }
-    
-    public void removeAllPhotos() {
-        getPhotos().clear();
+
+    /**
+     * Returns how many of the album's photos carry a tag.
+     *
+     * @param tag the tag
+     * @return the number of photos with the tag
+     */
+    public synchronized int getTagCount(Tag tag) {
+        return getTagCounts().getOrDefault(tag, 0);
+    }
+
+    // A saver on another thread writes the album as it is between two changes
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
     }
 
-    public String toString() {
+    // Field initializers do not run when an album is read back, so the total is marked unknown here
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        totalBytes = -1;
+    }
+
+    public synchronized String toString() {
+        // Made again only after a change; a list cell asks for it every time it is drawn
+        if (summary != null) {
+            return summary;
+        }
         if (photos.isEmpty()) {
-            return "NAME: " + albumName + "\nPHOTO COUNT: 0\nOldest Photo: N/A\nNewest Photo: N/A";
-        }
-    
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM-dd-yyyy HH:mm:ss");
-    
-        // Find the oldest photo based on the LocalDateTime attribute
-        Optional<Photo> oldestPhoto = photos.stream()
-            .min(Comparator.comparing(Photo::getDate));
-        // Find the newest photo based on the LocalDateTime attribute
-        Optional<Photo> newestPhoto = photos.stream()
-            .max(Comparator.comparing(Photo::getDate));
-    
+            summary = "NAME: " + albumName + "\nPHOTO COUNT: 0\nOldest Photo: N/A\nNewest Photo: N/A";
+            return summary;
+        }
+
         // Format the dates of the oldest and newest photos, or return "N/A" if not available
-        String oldestPhotoDate = oldestPhoto.map(photo -> photo.getDate().format(formatter)).orElse("N/A");
-        String newestPhotoDate = newestPhoto.map(photo -> photo.getDate().format(formatter)).orElse("N/A");
-    
-        return "NAME: " + albumName + "\nPHOTO COUNT: " + photos.size() + 
-               "\nOldest Photo: " + oldestPhotoDate + 
+        LocalDateTime oldest = getOldestDate();
+        LocalDateTime newest = getNewestDate();
+        String oldestPhotoDate = oldest == null ? "N/A" : oldest.format(DATE_FORMAT);
+        String newestPhotoDate = newest == null ? "N/A" : newest.format(DATE_FORMAT);
+
+        summary = "NAME: " + albumName + "\nPHOTO COUNT: " + photos.size() +
+               "\nOldest Photo: " + oldestPhotoDate +
                "\nNewest Photo: " + newestPhotoDate;
+        return summary;
     }
 }
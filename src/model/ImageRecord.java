@@ -0,0 +1,185 @@
+package model;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import util.ContentHashCache;
+import util.GlobalTags;
+
+/**
+ * Represents an image file with the caption and tags that belong to it.
+ * Every photo of the same image, in any album, refers to one shared record,
+ * so a caption or tag edit is made once and seen by all of them.
+ * <p>
+ * The tags are kept as the sorted numbers of their shared {@link Tag} objects, see
+ * {@link GlobalTags#tag(String, String)}, in an array that is replaced on each change. A record
+ * therefore holds a single small array whatever the number of tags, finds a tag by binary search,
+ * and can hand out its tags as a list that later changes do not affect.
+ *
+ * @author Marc Rizzolo
+ */
+
+public class ImageRecord {
+
+    private static final int[] NO_TAGS = new int[0];
+
+    private String imagePath;
+    private String caption;
+    private volatile int[] tagIds = NO_TAGS;
+    private long fileSize = -1; // -1 until first asked for
+
+    public ImageRecord(String imagePath, String caption) {
+        this.imagePath = imagePath;
+        this.caption = caption;
+    }
+
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public void setImagePath(String imagePath) {
+        this.imagePath = imagePath;
+        this.fileSize = -1;
+    }
+
+    /**
+     * Returns the size of the image file. The file is only looked at the first time.
+     *
+     * @return the size in bytes, or 0 if there is no local file
+     */
+    public long getFileSize() {
+        if (fileSize < 0) {
+            // Image paths are stored as file: URIs
+            File file = imagePath == null ? null : ContentHashCache.toFile(imagePath);
+            fileSize = file == null ? 0 : file.length();
+        }
+        return fileSize;
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public void setCaption(String caption) {
+        this.caption = caption;
+    }
+
+    /**
+     * Returns the tags of the image, in the order they were first used anywhere.
+     *
+     * @return the tags, which cannot be changed and do not follow later changes
+     */
+    public List<Tag> getTags() {
+        return new TagList(tagIds);
+    }
+
+    /**
+     * Checks whether the image has a tag.
+     *
+     * @param tag the tag
+     * @return true if the image has the tag
+     */
+    public boolean hasTag(Tag tag) {
+        return Arrays.binarySearch(tagIds, tag.getId()) >= 0;
+    }
+
+    public int getTagCount() {
+        return tagIds.length;
+    }
+
+    /**
+     * Adds a tag to the image.
+     *
+     * @param tag the tag to add
+     * @return false if the image already had the tag
+     */
+    public synchronized boolean addTag(Tag tag) {
+        return insert(tag.getId());
+    }
+
+    /**
+     * Removes a tag from the image.
+     *
+     * @param tag the tag to remove
+     * @return true if the image had the tag
+     */
+    public synchronized boolean removeTag(Tag tag) {
+        int[] ids = tagIds;
+        int index = Arrays.binarySearch(ids, tag.getId());
+        if (index < 0) {
+            return false;
+        }
+        int[] removed = new int[ids.length - 1];
+        System.arraycopy(ids, 0, removed, 0, index);
+        System.arraycopy(ids, index + 1, removed, index, ids.length - index - 1);
+        tagIds = removed.length == 0 ? NO_TAGS : removed;
+        return true;
+    }
+
+    // Puts a tag number in its place in a new array; called with the lock held
+    private boolean insert(int id) {
+        int[] ids = tagIds;
+        int index = Arrays.binarySearch(ids, id);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        int[] added = new int[ids.length + 1];
+        System.arraycopy(ids, 0, added, 0, index);
+        added[index] = id;
+        System.arraycopy(ids, index, added, index + 1, ids.length - index);
+        tagIds = added;
+        return true;
+    }
+
+    /**
+     * Takes over the caption and tags of another record of the same image, so that no edit made
+     * to either is lost when photos start sharing this record. Missing tags are added, and the
+     * other caption is used only if this record has none.
+     *
+     * @param other the record being replaced
+     * @return the tags that were added to this record
+     */
+    public synchronized List<Tag> merge(ImageRecord other) {
+        List<Tag> added = new ArrayList<>();
+        for (Tag tag : other.getTags()) {
+            if (insert(tag.getId())) {
+                added.add(tag);
+            }
+        }
+        if ((caption == null || caption.equals("N/A")) && other.caption != null) {
+            caption = other.caption;
+        }
+        return added;
+    }
+
+    /**
+     * The tags of a record at one point in time, looked up by number as they are read.
+     */
+    private static final class TagList extends AbstractList<Tag> implements RandomAccess {
+        private final int[] ids;
+
+        TagList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Tag get(int index) {
+            return GlobalTags.getInstance().tagById(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Tag && Arrays.binarySearch(ids, ((Tag) o).getId()) >= 0;
+        }
+    }
+}
@@ -1,38 +1,52 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 import java.time.LocalDateTime;
 
 /**
  * Represents a Photo with attributes.
- * 
+ * A photo is one album's entry for an image; the image path, caption and tags are kept in an
+ * {@link ImageRecord} that may be shared with other photos of the same image.
+ *
  * @author Marc Rizzolo
  */
 
 public class Photo implements Serializable {
-    
+
     static final long serialVersionUID = 1L;
-    private ArrayList<Tag> tags = new ArrayList<>();
+
+    // Photos are still serialized with the fields they had before images were shared
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("tags", ArrayList.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("caption", String.class),
+        new ObjectStreamField("date", LocalDateTime.class),
+        new ObjectStreamField("imagePath", String.class)
+    };
+
     private String name;
-    private String caption;
+    // When the image was taken, from its EXIF data or else the file's modification time; edits keep it
     private LocalDateTime date;
-    private String imagePath;
-    
+    private transient ImageRecord image;
+
 
 
     public Photo(String name, LocalDateTime date) {
         this.name = name;
-        this.caption = "N/A";
         this.date = date;
-        this.tags = new ArrayList<Tag>();
+        this.image = new ImageRecord(null, "N/A");
     }
 
     public Photo() {
         this.name = "";
-        this.caption = "N/A";
         this.date = LocalDateTime.now();
-        this.tags = new ArrayList<Tag>();
+        this.image = new ImageRecord(null, "N/A");
     }
 
 
@@ -45,12 +59,25 @@ public class Photo implements Serializable {
         this.name = name;
     }
 
+    public ImageRecord getImage() {
+        return image;
+    }
+
+    /**
+     * Makes this photo refer to the given image record, replacing its own path, caption and tags.
+     *
+     * @param image the shared image record
+     */
+    public void setImage(ImageRecord image) {
+        this.image = image;
+    }
+
     public String getCaption(){
-        return caption;
+        return image.getCaption();
     }
 
     public void setCaption(String caption){
-        this.caption = caption;
+        image.setCaption(caption);
     }
 
     public LocalDateTime getDate() {
@@ -61,21 +88,51 @@ public class Photo implements Serializable {
         this.date = date;
     }
 
-    public ArrayList<Tag> getTags(){
-        return tags;
+    public List<Tag> getTags(){
+        return image.getTags();
     }
-    
+
+    public boolean hasTag(Tag tag){
+        return image.hasTag(tag);
+    }
+
     public String getImagePath(){
-        return imagePath;
+        return image.getImagePath();
     }
 
     public void setImagePath(String imagePath) {
-        this.imagePath = imagePath;
+        image.setImagePath(imagePath);
     }
 
     public void addTag(Tag tag){
-        if (!tags.contains(tag)){
-            tags.add(tag);
+        image.addTag(tag);
+    }
+
+    public boolean removeTag(Tag tag){
+        return image.removeTag(tag);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("tags", new ArrayList<>(image.getTags()));
+        fields.put("name", name);
+        fields.put("caption", image.getCaption());
+        fields.put("date", date);
+        fields.put("imagePath", image.getImagePath());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", "");
+        date = (LocalDateTime) fields.get("date", null);
+        image = new ImageRecord((String) fields.get("imagePath", null), (String) fields.get("caption", "N/A"));
+        ArrayList<Tag> tags = (ArrayList<Tag>) fields.get("tags", null);
+        if (tags != null) {
+            for (Tag tag : tags) {
+                image.addTag(tag);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,12 @@
 package model;
 import java.io.Serializable;
-import java.util.Objects;
+
+import util.GlobalTags;
 
 /**
  * Represents a Tag with attributes.
+ * There is one Tag object for each type and value, held by {@link GlobalTags}; it carries the
+ * numbers of the tag and its type, so tags compare by number.
  * 
  * @author Marc Rizzolo
  */
@@ -15,8 +18,39 @@ public class Tag implements Serializable{
 
     private String tagName;
     private String tagValue;
+    private transient int id;
+    private transient int typeId;
 
+    /**
+     * Creates a copy of the tag with the given type and value. The copy is equal to the shared
+     * definition but is a different object; use {@link GlobalTags#tag(String, String)} to get the
+     * shared one.
+     *
+     * @param tagName  the tag type
+     * @param tagValue the value
+     * @deprecated use {@link GlobalTags#tag(String, String)}
+     */
+    @Deprecated
     public Tag(String tagName, String tagValue) {
+        this(GlobalTags.getInstance().tag(tagName, tagValue));
+    }
+
+    private Tag(Tag definition) {
+        this(definition.id, definition.typeId, definition.tagName, definition.tagValue);
+    }
+
+    /**
+     * Creates the definition of a tag. Only {@link GlobalTags} creates definitions; use
+     * {@link GlobalTags#tag(String, String)} to get one.
+     *
+     * @param id       the number of the tag
+     * @param typeId   the number of the tag type
+     * @param tagName  the tag type
+     * @param tagValue the value
+     */
+    public Tag(int id, int typeId, String tagName, String tagValue) {
+        this.id = id;
+        this.typeId = typeId;
         this.tagName = tagName;
         this.tagValue = tagValue;
     }
@@ -29,6 +63,14 @@ public class Tag implements Serializable{
         return tagValue;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public int getTypeId() {
+        return typeId;
+    }
+
     @Override
     public String toString() {
         return tagName + "=" + tagValue;
@@ -42,12 +84,16 @@ public class Tag implements Serializable{
         if (obj == null || getClass() != obj.getClass()) {
             return false;
         }
-        Tag tag = (Tag) obj;
-        return Objects.equals(tagName, tag.tagName) && Objects.equals(tagValue, tag.tagValue);
+        return id == ((Tag) obj).id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(tagName, tagValue);
+        return id;
+    }
+
+    // A read tag is replaced by the definition of the same tag in this run
+    private Object readResolve() {
+        return GlobalTags.getInstance().tag(tagName, tagValue);
     }
 }
@@ -1,11 +1,20 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
 
 /**
  * Represents a User with a username.
+ * The albums of a user read from the data file may be loaded lazily, the first time they are accessed.
+ * Like {@link Album}, a user may be changed from any thread; changes lock the user, and
+ * {@link #getAlbums()} returns a shared, unchangeable copy of the album list made after each change.
  * 
  * @author Marc Rizzolo
  */
@@ -16,12 +25,26 @@ public class User implements Serializable{
     static final long serialVersionUID = 1L;
     private String username;
     private ArrayList<Album> albums;
+    private transient Supplier<List<Album>> albumLoader;
+    // The copy of the album list handed to readers, or null after a change
+    private transient volatile List<Album> snapshot;
     
     public User (String username){
         this.username = username;
         albums = new ArrayList<Album>();
     }
 
+    /**
+     * Creates a user whose albums are loaded on first access.
+     *
+     * @param username    the username
+     * @param albumLoader supplies the user's albums when they are first needed
+     */
+    public User (String username, Supplier<List<Album>> albumLoader){
+        this.username = username;
+        this.albumLoader = albumLoader;
+    }
+
     //username methods
     public String getUsername(){
         return username;
@@ -36,7 +59,95 @@ public class User implements Serializable{
     }
 
     //album methods
-    public ArrayList<Album> getAlbums() {
-		return albums;
+
+    /**
+     * Returns the albums of the user, in order. The list cannot be changed and does not follow
+     * later changes to the user's albums.
+     *
+     * @return the albums
+     */
+    public List<Album> getAlbums() {
+        List<Album> current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = Collections.unmodifiableList(new ArrayList<>(albums()));
+                }
+                current = snapshot;
+            }
+        }
+        return current;
 	}
+
+    /**
+     * Adds an album at the end of the user's albums.
+     *
+     * @param album the album to add
+     * @return the position of the album
+     */
+    public synchronized int addAlbum(Album album) {
+        albums().add(album);
+        snapshot = null;
+        return albums.size() - 1;
+    }
+
+    /**
+     * Adds albums at the end of the user's albums.
+     *
+     * @param added the albums to add
+     */
+    public synchronized void addAlbums(Collection<Album> added) {
+        albums().addAll(added);
+        snapshot = null;
+    }
+
+    /**
+     * Removes an album.
+     *
+     * @param album the album to remove
+     * @return the position the album had, or -1 if the user did not have it
+     */
+    public synchronized int removeAlbum(Album album) {
+        int index = albums().indexOf(album);
+        if (index >= 0) {
+            removeAlbum(index);
+        }
+        return index;
+    }
+
+    /**
+     * Removes the album at the given position.
+     *
+     * @param index the position of the album
+     * @return the removed album
+     */
+    public synchronized Album removeAlbum(int index) {
+        Album album = albums().remove(index);
+        snapshot = null;
+        return album;
+    }
+
+    // Loads the albums on first access; called with the lock held
+    private ArrayList<Album> albums() {
+        if (albums == null) {
+            albums = new ArrayList<>(albumLoader.get());
+            albumLoader = null;
+        }
+        return albums;
+    }
+
+    /**
+     * Checks whether the albums of this user have been loaded.
+     *
+     * @return true if the albums are in memory
+     */
+    public synchronized boolean isLoaded() {
+        return albums != null;
+    }
+
+    // Lazily loaded albums must be in memory before the user is serialized
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        albums();
+        out.defaultWriteObject();
+    }
 }
@@ -1,18 +1,24 @@
  /**
  * @author Marc Rizzolo
- * 
+ *
  */
- 
+
  package util;
- 
+
+import java.util.List;
+
 /**
  * This interface represents a listener for album changes.
+ * Listeners are registered with the {@link AlbumEventBus}.
  */
 public interface AlbumChangeListener {
 
     /**
-     * Called when the album has changed.
+     * Called on the JavaFX application thread with the changes made since the last call, in the
+     * order they were made. Events for other users' albums are included and should be ignored.
+     *
+     * @param events the changes
      */
-    void onAlbumChanged();
+    void onAlbumChanged(List<AlbumEvent> events);
 
-}
\ No newline at end of file
+}
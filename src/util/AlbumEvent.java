@@ -0,0 +1,148 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * A change to a user's albums, published on the {@link AlbumEventBus} so that open views can
+ * update just the rows and tiles it affects.
+ * Each event names the user, the album and the photo it concerns, and for photos the position
+ * in the album, so views that mirror the album's photo list can apply it in place.
+ */
+public class AlbumEvent {
+
+    /**
+     * The kinds of changes that are published.
+     */
+    public enum Type {
+        ALBUM_ADDED, ALBUM_RENAMED, ALBUM_REMOVED,
+        PHOTO_ADDED, PHOTO_REMOVED, PHOTO_MOVED,
+        PHOTO_CHANGED, TAG_CHANGED
+    }
+
+    private final Type type;
+    private User user;
+    private Album album;
+    private Album targetAlbum;
+    private Photo photo;
+    private int photoIndex = -1;
+    private Tag tag;
+
+    private AlbumEvent(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Album getAlbum() {
+        return album;
+    }
+
+    public Album getTargetAlbum() {
+        return targetAlbum;
+    }
+
+    public Photo getPhoto() {
+        return photo;
+    }
+
+    public int getPhotoIndex() {
+        return photoIndex;
+    }
+
+    public Tag getTag() {
+        return tag;
+    }
+
+    /**
+     * Checks whether the event changes the photos of an album, or its name.
+     *
+     * @param album the album
+     * @return true if the album is the event's album or the album a photo was moved to
+     */
+    public boolean affects(Album album) {
+        return album != null && (album == this.album || album == targetAlbum);
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  FACTORIES
+
+    public static AlbumEvent albumAdded(User user, Album album) {
+        AlbumEvent event = new AlbumEvent(Type.ALBUM_ADDED);
+        event.user = user;
+        event.album = album;
+        return event;
+    }
+
+    public static AlbumEvent albumRenamed(User user, Album album) {
+        AlbumEvent event = new AlbumEvent(Type.ALBUM_RENAMED);
+        event.user = user;
+        event.album = album;
+        return event;
+    }
+
+    public static AlbumEvent albumRemoved(User user, Album album) {
+        AlbumEvent event = new AlbumEvent(Type.ALBUM_REMOVED);
+        event.user = user;
+        event.album = album;
+        return event;
+    }
+
+    public static AlbumEvent photoAdded(User user, Album album, Photo photo, int photoIndex) {
+        AlbumEvent event = new AlbumEvent(Type.PHOTO_ADDED);
+        event.user = user;
+        event.album = album;
+        event.photo = photo;
+        event.photoIndex = photoIndex;
+        return event;
+    }
+
+    public static AlbumEvent photoRemoved(User user, Album album, Photo photo, int photoIndex) {
+        AlbumEvent event = new AlbumEvent(Type.PHOTO_REMOVED);
+        event.user = user;
+        event.album = album;
+        event.photo = photo;
+        event.photoIndex = photoIndex;
+        return event;
+    }
+
+    // The photo is added at the end of the target album
+    public static AlbumEvent photoMoved(User user, Album album, Photo photo, int photoIndex, Album targetAlbum) {
+        AlbumEvent event = new AlbumEvent(Type.PHOTO_MOVED);
+        event.user = user;
+        event.album = album;
+        event.photo = photo;
+        event.photoIndex = photoIndex;
+        event.targetAlbum = targetAlbum;
+        return event;
+    }
+
+    // A date or caption change; captions belong to the image, so the album may be null
+    public static AlbumEvent photoChanged(User user, Album album, Photo photo) {
+        AlbumEvent event = new AlbumEvent(Type.PHOTO_CHANGED);
+        event.user = user;
+        event.album = album;
+        event.photo = photo;
+        return event;
+    }
+
+    // A tag added to or removed from an image, and so from every photo of it
+    public static AlbumEvent tagChanged(Photo photo, Tag tag) {
+        AlbumEvent event = new AlbumEvent(Type.TAG_CHANGED);
+        event.photo = photo;
+        event.tag = tag;
+        return event;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javafx.application.Platform;
+
+/**
+ * The AlbumEventBus class is a singleton that delivers {@link AlbumEvent}s to the open views.
+ * <p>
+ * Events can be published from any thread. They are collected and delivered together on the JavaFX
+ * application thread, once per pass of its event loop, so a burst of changes such as a batch of
+ * imported photos reaches each listener as one list and the view updates once.
+ */
+public class AlbumEventBus {
+    private static AlbumEventBus instance;
+
+    private final List<AlbumChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private List<AlbumEvent> pending = new ArrayList<>();
+    private boolean scheduled;
+
+    private AlbumEventBus() {
+    }
+
+    /**
+     * Returns the singleton instance of the AlbumEventBus class.
+     * If the instance does not exist, it is created.
+     *
+     * @return the singleton instance of the AlbumEventBus class
+     */
+    public static synchronized AlbumEventBus getInstance() {
+        if (instance == null) {
+            instance = new AlbumEventBus();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a listener. A view must unsubscribe when it is closed.
+     *
+     * @param listener the listener to add
+     */
+    public void subscribe(AlbumChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void unsubscribe(AlbumChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a change. It is delivered shortly afterwards on the JavaFX application thread.
+     *
+     * @param event the change
+     */
+    public synchronized void publish(AlbumEvent event) {
+        pending.add(event);
+        if (!scheduled) {
+            scheduled = true;
+            Platform.runLater(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        List<AlbumEvent> events;
+        synchronized (this) {
+            events = Collections.unmodifiableList(pending);
+            pending = new ArrayList<>();
+            scheduled = false;
+        }
+        for (AlbumChangeListener listener : listeners) {
+            try {
+                listener.onAlbumChanged(events);
+            } catch (RuntimeException e) {
+                // One broken view must not keep the others from updating
+                System.err.println("Error delivering album changes: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.Album;
+import model.ImageRecord;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * The BinaryCodec class reads and writes snapshots in a compact, versioned binary format.
+ * <p>
+ * Unlike Java serialization it writes no class descriptors. Within a user section every distinct
+ * string (album names, captions, image paths, tag names and values) is stored once in a string
+ * table and referenced by index, every distinct tag is stored once in a tag table, and dates and
+ * counts are written as variable-length integers.
+ * <p>
+ * Version 2 splits the file into a header, a username directory sorted by name, and one
+ * self-contained section per user, so that {@link UserStore} can look up a single user and decode
+ * only that user's albums:
+ * <pre>
+ * magic "PHAL", version                      (5 bytes)
+ * sequence                                   (long)
+ * tag types, restricted tag types            (int count, (int length, UTF-8 bytes)*)
+ * user count                                 (int)
+ * directory, sorted by username              (count * DIRECTORY_ENTRY_SIZE bytes)
+ *   name offset (long), name length (int), section offset (long), section length (int), ordinal (int)
+ * username bytes
+ * user sections, in ordinal order
+ *   string table : count, (length, UTF-8 bytes)*
+ *   tag table    : count, (name id, value id)*
+ *   albums       : count, (name id, photo count, photo*)*
+ *   photo        : name id, caption id, path id, seconds, nanos, tag count, tag id*
+ * </pre>
+ * All numbers inside a section are unsigned varints. String id 0 is reserved for null.
+ * Version 1 files, which used a single string table for the whole graph, can still be read.
+ */
+public class BinaryCodec {
+
+    /** The bytes every binary snapshot starts with. */
+    static final byte[] MAGIC = { 'P', 'H', 'A', 'L' };
+    static final int VERSION = 2;
+    static final int DIRECTORY_ENTRY_SIZE = 28;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Checks whether the given file header belongs to a binary snapshot.
+     *
+     * @param header the first bytes of the file
+     * @return true if the header starts with the binary magic
+     */
+    static boolean isBinary(byte[] header) {
+        if (header.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  WRITING
+
+    /**
+     * Writes a snapshot in the current binary format.
+     *
+     * @param snapshot the snapshot to write
+     * @param out      the stream to write to
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(FileManager.Snapshot snapshot, DataOutputStream out) throws IOException {
+        int userCount = snapshot.users.size();
+        byte[][] names = new byte[userCount][];
+        byte[][] sections = new byte[userCount][];
+        for (int i = 0; i < userCount; i++) {
+            User user = snapshot.users.get(i);
+            names[i] = user.getUsername().getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeSection(user.getAlbums(), new DataOutputStream(buffer));
+            sections[i] = buffer.toByteArray();
+        }
+
+        ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBuffer);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeLong(snapshot.sequence);
+        writeFixedStringSet(header, snapshot.tagTypes);
+        writeFixedStringSet(header, snapshot.restrictedTagTypes);
+        header.writeInt(userCount);
+        header.flush();
+
+        // Lay out names and sections after the directory
+        long namesStart = headerBuffer.size() + (long) userCount * DIRECTORY_ENTRY_SIZE;
+        long[] nameOffsets = new long[userCount];
+        long offset = namesStart;
+        for (int i = 0; i < userCount; i++) {
+            nameOffsets[i] = offset;
+            offset += names[i].length;
+        }
+        long[] sectionOffsets = new long[userCount];
+        for (int i = 0; i < userCount; i++) {
+            sectionOffsets[i] = offset;
+            offset += sections[i].length;
+        }
+
+        Integer[] sorted = new Integer[userCount];
+        for (int i = 0; i < userCount; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> snapshot.users.get(a).getUsername().compareTo(snapshot.users.get(b).getUsername()));
+
+        out.write(headerBuffer.toByteArray());
+        for (int i : sorted) {
+            out.writeLong(nameOffsets[i]);
+            out.writeInt(names[i].length);
+            out.writeLong(sectionOffsets[i]);
+            out.writeInt(sections[i].length);
+            out.writeInt(i);
+        }
+        for (byte[] name : names) {
+            out.write(name);
+        }
+        for (byte[] section : sections) {
+            out.write(section);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes one user's albums as a self-contained section.
+     *
+     * @param albums the albums to write
+     * @param out    the stream to write to
+     * @throws IOException if the section cannot be written
+     */
+    static void writeSection(List<Album> albums, DataOutputStream out) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        Map<Tag, Integer> tags = new HashMap<>();
+        List<Tag> tagTable = new ArrayList<>();
+
+        // Collect the tables first so the albums can be written in a single pass afterwards
+        for (Album album : albums) {
+            intern(album.getAlbumName(), strings, stringTable);
+            for (Photo photo : album.getPhotos()) {
+                intern(photo.getName(), strings, stringTable);
+                intern(photo.getCaption(), strings, stringTable);
+                intern(photo.getImagePath(), strings, stringTable);
+                for (Tag tag : photo.getTags()) {
+                    if (!tags.containsKey(tag)) {
+                        tags.put(tag, tagTable.size());
+                        tagTable.add(tag);
+                        intern(tag.getTagName(), strings, stringTable);
+                        intern(tag.getTagValue(), strings, stringTable);
+                    }
+                }
+            }
+        }
+
+        writeVarLong(out, stringTable.size());
+        for (String s : stringTable) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarLong(out, tagTable.size());
+        for (Tag tag : tagTable) {
+            writeVarLong(out, stringId(tag.getTagName(), strings));
+            writeVarLong(out, stringId(tag.getTagValue(), strings));
+        }
+
+        writeVarLong(out, albums.size());
+        for (Album album : albums) {
+            writeVarLong(out, stringId(album.getAlbumName(), strings));
+            writeVarLong(out, album.getPhotos().size());
+            for (Photo photo : album.getPhotos()) {
+                writePhoto(out, photo, strings, tags);
+            }
+        }
+        out.flush();
+    }
+
+    private static void writePhoto(DataOutputStream out, Photo photo, Map<String, Integer> strings, Map<Tag, Integer> tags) throws IOException {
+        writeVarLong(out, stringId(photo.getName(), strings));
+        writeVarLong(out, stringId(photo.getCaption(), strings));
+        writeVarLong(out, stringId(photo.getImagePath(), strings));
+        LocalDateTime date = photo.getDate();
+        if (date == null) {
+            writeVarLong(out, 0);
+        } else {
+            // Shifted by one so that 0 can mean "no date"
+            writeVarLong(out, zigZag(date.toEpochSecond(ZoneOffset.UTC)) + 1);
+            writeVarLong(out, date.getNano());
+        }
+        writeVarLong(out, photo.getTags().size());
+        for (Tag tag : photo.getTags()) {
+            writeVarLong(out, tags.get(tag));
+        }
+    }
+
+    private static void writeFixedStringSet(DataOutputStream out, Set<String> set) throws IOException {
+        out.writeInt(set.size());
+        for (String s : set) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void intern(String s, Map<String, Integer> strings, List<String> stringTable) {
+        if (s != null && !strings.containsKey(s)) {
+            strings.put(s, stringTable.size() + 1);
+            stringTable.add(s);
+        }
+    }
+
+    private static int stringId(String s, Map<String, Integer> strings) {
+        return s == null ? 0 : strings.get(s);
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  READING
+
+    /**
+     * Reads one user's albums from a section written by {@link #writeSection(List, DataOutputStream)}.
+     *
+     * @param in the stream to read from, positioned at the start of the section
+     * @return the albums of the section
+     * @throws IOException if the section is malformed
+     */
+    static ArrayList<Album> readSection(DataInputStream in) throws IOException {
+        String[] strings = readStringTable(in);
+        Tag[] tags = readTagTable(in, strings);
+        int albumCount = readCount(in);
+        ArrayList<Album> albums = new ArrayList<>(albumCount);
+        Map<String, ImageRecord> images = new HashMap<>();
+        for (int a = 0; a < albumCount; a++) {
+            albums.add(readAlbum(in, strings, tags, images));
+        }
+        return albums;
+    }
+
+    /**
+     * Reads a version 1 snapshot, which has one string and tag table for the whole graph.
+     *
+     * @param in the stream to read from, positioned just after the version byte
+     * @return the snapshot that was read
+     * @throws IOException if the data is malformed
+     */
+    static FileManager.Snapshot readVersion1(DataInputStream in) throws IOException {
+        String[] strings = readStringTable(in);
+        Tag[] tags = readTagTable(in, strings);
+
+        FileManager.Snapshot snapshot = new FileManager.Snapshot();
+        snapshot.tagTypes = readStringSet(in, strings);
+        snapshot.restrictedTagTypes = readStringSet(in, strings);
+        snapshot.sequence = readVarLong(in);
+
+        int userCount = readCount(in);
+        List<User> users = new ArrayList<>(userCount);
+        Map<String, ImageRecord> images = new HashMap<>();
+        for (int u = 0; u < userCount; u++) {
+            User user = new User(strings[readCount(in)]);
+            int albumCount = readCount(in);
+            for (int a = 0; a < albumCount; a++) {
+                user.addAlbum(readAlbum(in, strings, tags, images));
+            }
+            users.add(user);
+        }
+        snapshot.users = users;
+        return snapshot;
+    }
+
+    private static String[] readStringTable(DataInputStream in) throws IOException {
+        String[] strings = new String[readCount(in) + 1];
+        for (int i = 1; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(in)];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static Tag[] readTagTable(DataInputStream in, String[] strings) throws IOException {
+        Tag[] tags = new Tag[readCount(in)];
+        for (int i = 0; i < tags.length; i++) {
+            String name = strings[readCount(in)];
+            tags[i] = GlobalTags.getInstance().tag(name, strings[readCount(in)]);
+        }
+        return tags;
+    }
+
+    private static Album readAlbum(DataInputStream in, String[] strings, Tag[] tags, Map<String, ImageRecord> images) throws IOException {
+        Album album = new Album(strings[readCount(in)]);
+        int photoCount = readCount(in);
+        for (int p = 0; p < photoCount; p++) {
+            album.addPhoto(readPhoto(in, strings, tags, images));
+        }
+        return album;
+    }
+
+    private static Photo readPhoto(DataInputStream in, String[] strings, Tag[] tags, Map<String, ImageRecord> images) throws IOException {
+        String name = strings[readCount(in)];
+        String caption = strings[readCount(in)];
+        String imagePath = strings[readCount(in)];
+        long seconds = readVarLong(in);
+        LocalDateTime date = null;
+        if (seconds != 0) {
+            date = LocalDateTime.ofEpochSecond(unZigZag(seconds - 1), readCount(in), ZoneOffset.UTC);
+        }
+        Photo photo = new Photo(name, date);
+        photo.setCaption(caption);
+        photo.setImagePath(imagePath);
+        int tagCount = readCount(in);
+        for (int t = 0; t < tagCount; t++) {
+            photo.addTag(tags[readCount(in)]);
+        }
+        // Photos of the same image share one record
+        if (imagePath != null) {
+            ImageRecord shared = images.putIfAbsent(imagePath, photo.getImage());
+            if (shared != null) {
+                shared.merge(photo.getImage());
+                photo.setImage(shared);
+            }
+        }
+        return photo;
+    }
+
+    private static Set<String> readStringSet(DataInputStream in, String[] strings) throws IOException {
+        int size = readCount(in);
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            set.add(strings[readCount(in)]);
+        }
+        return set;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  VARINTS
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Count out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
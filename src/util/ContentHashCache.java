@@ -0,0 +1,247 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ContentHashCache class is a singleton that remembers the content hash and the perceptual hash
+ * of image files.
+ * <p>
+ * A file is hashed by streaming it through SHA-256 in fixed-size chunks, so even large images are
+ * never held in memory. The perceptual hash is described in {@link PerceptualHash}. Both are stored
+ * with the file's size and modification time and reused for as long as both are unchanged, so an
+ * image is only read again after it has been edited. The cache is saved to {@code data/hashes.dat}
+ * by {@link #save()}.
+ */
+public class ContentHashCache {
+    private static ContentHashCache instance;
+
+    private static final String CACHE_FILE = "data/hashes.dat";
+    private static final int CACHE_VERSION = 2;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        // Each hash is computed the first time it is asked for
+        String hash;
+        boolean hasPerceptualHash;
+        long perceptualHash;
+
+        Entry(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty;
+
+    private ContentHashCache() {
+        load();
+    }
+
+    /**
+     * Returns the singleton instance of the ContentHashCache class.
+     * If the instance does not exist, it is created and the saved cache is read.
+     *
+     * @return the singleton instance of the ContentHashCache class
+     */
+    public static synchronized ContentHashCache getInstance() {
+        if (instance == null) {
+            instance = new ContentHashCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the local file an image path refers to.
+     *
+     * @param imagePath the image path, either a {@code file:} URL or a plain file path
+     * @return the file, or null if the path is not a local file
+     */
+    public static File toFile(String imagePath) {
+        try {
+            if (imagePath.startsWith("file:")) {
+                return new File(URI.create(imagePath));
+            }
+            return imagePath.contains(":/") ? null : new File(imagePath);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the content hash of a file, reading the file only if it changed since it was last hashed.
+     *
+     * @param file the file to hash
+     * @return the hash as lowercase hex
+     * @throws IOException if the file cannot be read
+     */
+    public String hash(File file) throws IOException {
+        Entry entry = entry(file);
+        synchronized (this) {
+            if (entry.hash != null) {
+                return entry.hash;
+            }
+        }
+        String hash = computeHash(file);
+        synchronized (this) {
+            entry.hash = hash;
+            dirty = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the perceptual hash of an image file, decoding the image only if the file changed
+     * since it was last hashed.
+     *
+     * @param file the image file
+     * @return the 64-bit perceptual hash
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public long perceptualHash(File file) throws IOException {
+        Entry entry = entry(file);
+        synchronized (this) {
+            if (entry.hasPerceptualHash) {
+                return entry.perceptualHash;
+            }
+        }
+        long hash = PerceptualHash.compute(file);
+        synchronized (this) {
+            entry.perceptualHash = hash;
+            entry.hasPerceptualHash = true;
+            dirty = true;
+        }
+        return hash;
+    }
+
+    // Returns the entry for a file, replacing it if the file changed since it was hashed
+    private synchronized Entry entry(File file) {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modified = file.lastModified();
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.modified != modified) {
+            entry = new Entry(size, modified);
+            entries.put(path, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Hashes a file by streaming it through SHA-256.
+     *
+     * @param file the file to hash
+     * @return the hash as lowercase hex
+     * @throws IOException if the file cannot be read
+     */
+    public static String computeHash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private void load() {
+        File file = new File(CACHE_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version < 1 || version > CACHE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong());
+                String hash = in.readUTF();
+                entry.hash = hash.isEmpty() ? null : hash;
+                // Version 1 had no perceptual hashes
+                if (version >= 2) {
+                    entry.hasPerceptualHash = in.readBoolean();
+                    entry.perceptualHash = in.readLong();
+                }
+                entries.put(path, entry);
+            }
+        } catch (IOException e) {
+            // The cache only saves work; start over if it cannot be read
+            System.err.println("Error reading content hash cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    /**
+     * Writes the cache to disk if any hash was added since it was last saved.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File file = new File(CACHE_FILE);
+        File temp = new File(CACHE_FILE + ".tmp");
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.size);
+                out.writeLong(value.modified);
+                out.writeUTF(value.hash == null ? "" : value.hash);
+                out.writeBoolean(value.hasPerceptualHash);
+                out.writeLong(value.perceptualHash);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing content hash cache: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Error writing content hash cache: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ContentIndex class finds library images whose file content is identical to a file being imported.
+ * <p>
+ * Only files of the same size can have the same content, so the index groups image paths by file
+ * size and hashes nothing but the images in the imported file's group. Hashes come from the
+ * {@link ContentHashCache}, so an unchanged file is never read twice. Images that are not local
+ * files are not indexed.
+ */
+public class ContentIndex {
+
+    private final Map<Long, List<String>> pathsBySize = new HashMap<>();
+    private final Map<String, Long> sizes = new HashMap<>();
+
+    /**
+     * Indexes an image that was added to the library.
+     *
+     * @param imagePath the image path
+     */
+    public synchronized void add(String imagePath) {
+        File file = imagePath == null ? null : ContentHashCache.toFile(imagePath);
+        if (file == null || !file.isFile() || sizes.containsKey(imagePath)) {
+            return;
+        }
+        long size = file.length();
+        sizes.put(imagePath, size);
+        pathsBySize.computeIfAbsent(size, s -> new ArrayList<>(1)).add(imagePath);
+    }
+
+    /**
+     * Removes an image that is no longer in any album.
+     *
+     * @param imagePath the image path
+     */
+    public synchronized void remove(String imagePath) {
+        Long size = sizes.remove(imagePath);
+        if (size == null) {
+            return;
+        }
+        List<String> paths = pathsBySize.get(size);
+        paths.remove(imagePath);
+        if (paths.isEmpty()) {
+            pathsBySize.remove(size);
+        }
+    }
+
+    private synchronized List<String> candidates(long size) {
+        List<String> paths = pathsBySize.get(size);
+        return paths == null ? new ArrayList<>() : new ArrayList<>(paths);
+    }
+
+    /**
+     * Finds a library image with the same content as a file.
+     * Files are hashed outside the index lock, so other index updates are not held up by disk reads.
+     *
+     * @param file the file being imported
+     * @return the path of an identical library image, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    public String findDuplicate(File file) throws IOException {
+        List<String> candidates = candidates(file.length());
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        ContentHashCache hashes = ContentHashCache.getInstance();
+        String hash = hashes.hash(file);
+        for (String candidate : candidates) {
+            File other = ContentHashCache.toFile(candidate);
+            if (other == null || !other.isFile() || other.length() != file.length()) {
+                continue;
+            }
+            try {
+                if (hashes.hash(other).equals(hash)) {
+                    return candidate;
+                }
+            } catch (IOException e) {
+                // An unreadable library image cannot be compared; keep looking
+                System.err.println("Error reading image: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DataJournal class is an append-only write-ahead log of edits made since the last snapshot.
+ * Every edit is appended to "data/data.journal" in constant time instead of rewriting the whole
+ * data file. Once the journal grows past a threshold, a background compactor folds it into a new
+ * snapshot and truncates the journal.
+ * <p>
+ * Appends are write-behind: an entry is encoded in memory when it is recorded, and a burst of
+ * entries is written to disk in a single write on the background thread at most
+ * {@link #setMaxDelay(long) maxDelay} milliseconds later. {@link #flush()} writes pending entries
+ * immediately and should be called on logout and shutdown.
+ * <p>
+ * Every entry carries a sequence number and every snapshot records the last sequence number it
+ * contains, so entries that were already folded into the snapshot are skipped on replay even if
+ * the application stopped between writing the snapshot and truncating the journal.
+ */
+public class DataJournal {
+
+    /** The number of entries after which the journal is folded into the snapshot. */
+    private static final int COMPACT_THRESHOLD = 500;
+
+    private final File journalFile;
+    // Guards the pending buffer and counters; only held briefly, so appends never wait on disk I/O
+    private final Object lock = new Object();
+    // Guards the journal file; always taken before lock, never while holding it, and after the
+    // snapshot lock of FileManager when both are needed
+    private final Object fileLock = new Object();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "journal-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileOutputStream out;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long maxDelay = 500;
+    private boolean flushScheduled;
+    private long lastSequence;
+    private boolean positioned;
+    private int entryCount;
+    private boolean compactionScheduled;
+
+    /**
+     * A journal entry together with its sequence number.
+     */
+    public static class Record {
+        public final long sequence;
+        public final JournalEntry entry;
+
+        Record(long sequence, JournalEntry entry) {
+            this.sequence = sequence;
+            this.entry = entry;
+        }
+    }
+
+    public DataJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Reads every complete record from the journal.
+     * A torn record at the end of the file (from a crash mid-append) is cut off so that
+     * later appends start on a record boundary. Also positions the sequence counter after
+     * the last record read.
+     *
+     * @param afterSequence only records with a greater sequence number are returned
+     * @return the records in the order they were appended
+     */
+    public List<Record> readRecords(long afterSequence) {
+        synchronized (fileLock) {
+            writePending();
+            closeOutput();
+            List<Record> all = readRecords(0, Long.MAX_VALUE);
+            List<Record> records = new ArrayList<>();
+            for (Record record : all) {
+                if (record.sequence > afterSequence) {
+                    records.add(record);
+                }
+            }
+            synchronized (lock) {
+                entryCount = records.size();
+                lastSequence = Math.max(afterSequence, all.isEmpty() ? 0 : all.get(all.size() - 1).sequence);
+                positioned = true;
+            }
+            return records;
+        }
+    }
+
+    // Reads records with afterSequence < sequence <= upToSequence, truncating a torn last record
+    private List<Record> readRecords(long afterSequence, long upToSequence) {
+        List<Record> records = new ArrayList<>();
+        if (!journalFile.exists()) {
+            return records;
+        }
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(journalFile));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                long sequence = in.readLong();
+                JournalEntry entry = JournalEntry.read(in);
+                validLength = counter.count;
+                if (sequence > upToSequence) {
+                    break;
+                }
+                if (sequence > afterSequence) {
+                    records.add(new Record(sequence, entry));
+                }
+            }
+        } catch (EOFException e) {
+            // End of journal, or a partially written last record
+        } catch (IOException e) {
+            System.err.println("Error reading journal: " + e.getMessage());
+        }
+        if (upToSequence == Long.MAX_VALUE && validLength < journalFile.length()) {
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(validLength);
+            } catch (IOException e) {
+                System.err.println("Error truncating journal: " + e.getMessage());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * A buffered stream that counts the bytes handed to the reader.
+     */
+    private static class CountingInputStream extends BufferedInputStream {
+        long count;
+
+        CountingInputStream(FileInputStream in) {
+            super(in);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Sets the longest time an appended entry may wait before it is written to disk.
+     *
+     * @param maxDelay the delay in milliseconds
+     */
+    public void setMaxDelay(long maxDelay) {
+        synchronized (lock) {
+            this.maxDelay = maxDelay;
+        }
+    }
+
+    /**
+     * Appends an entry to the journal.
+     * The entry is encoded immediately, so later changes to the objects it refers to are not
+     * recorded, and written to disk by the background thread together with any other entries
+     * appended in the meantime. Schedules a compaction if the journal has grown too large.
+     *
+     * @param entry the entry to append
+     */
+    public void append(JournalEntry entry) {
+        ensurePositioned();
+        synchronized (lock) {
+            try {
+                pendingOut.writeLong(++lastSequence);
+                entry.write(pendingOut);
+                entryCount++;
+            } catch (IOException e) {
+                System.err.println("Error appending to journal: " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                writer.schedule(this::flush, maxDelay, TimeUnit.MILLISECONDS);
+            }
+            if (entryCount >= COMPACT_THRESHOLD && !compactionScheduled) {
+                compactionScheduled = true;
+                writer.schedule(this::compact, maxDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void ensurePositioned() {
+        synchronized (lock) {
+            if (positioned) {
+                return;
+            }
+        }
+        readRecords(0);
+    }
+
+    /**
+     * Writes every pending entry to disk now.
+     */
+    public void flush() {
+        synchronized (fileLock) {
+            writePending();
+        }
+    }
+
+    /**
+     * Checks whether some appended entries have not been written to disk yet.
+     *
+     * @return true if there are pending entries
+     */
+    public boolean isDirty() {
+        synchronized (lock) {
+            return pending.size() > 0;
+        }
+    }
+
+    // Must be called while holding fileLock
+    private void writePending() {
+        byte[] data;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.size() == 0) {
+                return;
+            }
+            data = pending.toByteArray();
+            pending.reset();
+        }
+        try {
+            if (out == null) {
+                out = new FileOutputStream(journalFile, true);
+            }
+            out.write(data);
+            out.getChannel().force(false);
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e.getMessage());
+            e.printStackTrace();
+            closeOutput();
+        }
+    }
+
+    /**
+     * Discards every entry in the journal, including pending ones. Used after a full snapshot has been written,
+     * with the snapshot lock of {@link FileManager} held since the snapshot was taken.
+     *
+     * @param snapshotSequence the sequence number recorded in the snapshot that replaced the journal
+     */
+    public void reset(long snapshotSequence) {
+        synchronized (FileManager.snapshotLock) {
+            synchronized (fileLock) {
+                closeOutput();
+                journalFile.delete();
+                synchronized (lock) {
+                    pending.reset();
+                    entryCount = 0;
+                    lastSequence = Math.max(lastSequence, snapshotSequence);
+                    positioned = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last appended entry.
+     *
+     * @return the last sequence number
+     */
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Folds the journal into the snapshot on the compactor thread.
+     * The snapshot is rebuilt from the snapshot file and the journal only, so the in-memory
+     * graph used by the UI is never touched. Entries appended while the snapshot is being
+     * written are carried over to the new journal. {@link FileManager#saveData} takes the same
+     * snapshot lock, so the two never replace each other's snapshot or journal.
+     */
+    private void compact() {
+        // Holds the snapshot lock throughout, so a save cannot write a newer snapshot in between
+        synchronized (FileManager.snapshotLock) {
+            try {
+                long upTo;
+                List<Record> records;
+                FileManager.Snapshot snapshot = FileManager.readSnapshot();
+                synchronized (fileLock) {
+                    writePending();
+                    synchronized (lock) {
+                        upTo = lastSequence;
+                    }
+                    records = readRecords(snapshot.sequence, upTo);
+                }
+                for (Record record : records) {
+                    record.entry.applyTo(snapshot.users, snapshot.tagTypes, snapshot.restrictedTagTypes);
+                }
+                snapshot.sequence = upTo;
+                FileManager.writeSnapshot(snapshot);
+
+                synchronized (fileLock) {
+                    writePending();
+                    closeOutput();
+                    List<Record> tail = readRecords(upTo, Long.MAX_VALUE);
+                    File rewritten = new File(journalFile.getPath() + ".tmp");
+                    try (DataOutputStream tailOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rewritten)))) {
+                        for (Record record : tail) {
+                            tailOut.writeLong(record.sequence);
+                            record.entry.write(tailOut);
+                        }
+                    }
+                    Files.move(rewritten.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    synchronized (lock) {
+                        entryCount = tail.size();
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Error compacting journal: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                synchronized (lock) {
+                    compactionScheduled = false;
+                }
+            }
+        }
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import model.Album;
+import model.ImageRecord;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * The DataRepository class is a singleton that holds the one in-memory copy of the users for the
+ * whole application. The data file is read once and every scene receives the same User instances,
+ * so switching scenes costs no disk reads and edits made in one scene are seen by all others.
+ * <p>
+ * The repository also owns the search indexes. They share one {@link PhotoRegistry} so their results
+ * can be combined, are built together on first use, and controllers keep them up to date by
+ * reporting photo changes through the {@code on...} methods. Captions and tags belong to an image
+ * and are shared by all of its photos, so they are edited through the repository, which keeps the
+ * indexes current and records the edit once.
+ */
+public class DataRepository {
+    private static DataRepository instance;
+
+    private List<User> users;
+    private final Map<String, User> usersByName = new HashMap<>();
+    private PhotoRegistry registry;
+    private TagIndex tagIndex;
+    private DateIndex dateIndex;
+    private ImagePathIndex pathIndex;
+    private ContentIndex contentIndex;
+    private NearDuplicateIndex nearDuplicateIndex;
+
+    /**
+     * The number of differing hash bits up to which two images count as near-duplicates.
+     */
+    public static final int NEAR_DUPLICATE_DISTANCE = 10;
+
+    // Perceptual hashes of imported images are computed here, one image at a time
+    private final ExecutorService hasher = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "image-hasher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private DataRepository() {
+    }
+
+    /**
+     * Returns the singleton instance of the DataRepository class.
+     * If the instance does not exist, it is created.
+     *
+     * @return the singleton instance of the DataRepository class
+     */
+    public static synchronized DataRepository getInstance() {
+        if (instance == null) {
+            instance = new DataRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the list of all users, loading it on first use.
+     * Users that were already handed out by {@link #findUser(String)} keep their identity.
+     *
+     * @return the live list of users, or null if the data could not be loaded
+     */
+    public synchronized List<User> getUsers() {
+        if (users == null) {
+            List<User> loaded = FileManager.loadData();
+            if (loaded == null) {
+                return null;
+            }
+            for (int i = 0; i < loaded.size(); i++) {
+                User existing = usersByName.get(loaded.get(i).getUsername());
+                if (existing != null) {
+                    loaded.set(i, existing);
+                }
+            }
+            usersByName.clear();
+            for (User user : loaded) {
+                usersByName.put(user.getUsername(), user);
+            }
+            users = loaded;
+        }
+        return users;
+    }
+
+    /**
+     * Finds a user by username.
+     * Before the full list of users has been loaded this only searches the username directory of
+     * the data file, so logging in does not load anyone else's albums.
+     *
+     * @param username the username to look up
+     * @return the user, or null if there is no such user
+     * @throws IOException if the data file cannot be read
+     */
+    public synchronized User findUser(String username) throws IOException {
+        User user = usersByName.get(username);
+        if (user == null && users == null) {
+            user = FileManager.findUser(username);
+            if (user != null) {
+                usersByName.put(username, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Adds a new user and records the edit.
+     *
+     * @param user the user to add
+     */
+    public synchronized void addUser(User user) {
+        getUsers().add(user);
+        usersByName.put(user.getUsername(), user);
+        FileManager.record(JournalEntry.addUser(user.getUsername()));
+    }
+
+    /**
+     * Removes a user and records the edit.
+     *
+     * @param user the user to remove
+     */
+    public synchronized void removeUser(User user) {
+        if (registry != null) {
+            for (Album album : user.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    onPhotoRemoved(photo);
+                }
+            }
+        }
+        getUsers().remove(user);
+        usersByName.remove(user.getUsername());
+        FileManager.record(JournalEntry.removeUser(user.getUsername()));
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  INDEXES
+
+    private void buildIndexes() {
+        if (registry != null) {
+            return;
+        }
+        registry = new PhotoRegistry();
+        tagIndex = new TagIndex(registry);
+        dateIndex = new DateIndex();
+        pathIndex = new ImagePathIndex();
+        for (User user : getUsers()) {
+            for (Album album : user.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    register(photo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the registry that assigns the photo ids used by the indexes, building the indexes on first use.
+     *
+     * @return the photo registry
+     */
+    public synchronized PhotoRegistry getPhotoRegistry() {
+        buildIndexes();
+        return registry;
+    }
+
+    /**
+     * Returns the tag index over every user's photos, building it on first use.
+     *
+     * @return the tag index
+     */
+    public synchronized TagIndex getTagIndex() {
+        buildIndexes();
+        return tagIndex;
+    }
+
+    /**
+     * Returns the date index over every user's photos, building it on first use.
+     *
+     * @return the date index
+     */
+    public synchronized DateIndex getDateIndex() {
+        buildIndexes();
+        return dateIndex;
+    }
+
+    /**
+     * Returns the image path index over every user's photos, building it on first use.
+     *
+     * @return the image path index
+     */
+    public synchronized ImagePathIndex getPathIndex() {
+        buildIndexes();
+        return pathIndex;
+    }
+
+    /**
+     * Finds a photo in the library of the same image as a file about to be imported.
+     * A photo with the same path is found first; otherwise a photo whose image file has identical
+     * content, so an image imported again from another folder is stored only once.
+     *
+     * @param file the file being imported
+     * @return a photo of the same image, or null if the image is new to the library
+     * @throws IOException if the file cannot be read
+     */
+    public Photo findImage(File file) throws IOException {
+        String imagePath = file.toURI().toString();
+        ContentIndex contents;
+        synchronized (this) {
+            Photo photo = getPathIndex().first(imagePath);
+            if (photo != null) {
+                return photo;
+            }
+            // Building the content index reads the size of every image file, so it waits until the first import
+            if (contentIndex == null) {
+                contentIndex = new ContentIndex();
+                for (String path : pathIndex.paths()) {
+                    contentIndex.add(path);
+                }
+            }
+            contents = contentIndex;
+        }
+        // Hashing reads files, so it is done without holding the repository lock
+        String duplicate = contents.findDuplicate(file);
+        synchronized (this) {
+            return duplicate == null ? null : pathIndex.first(duplicate);
+        }
+    }
+
+    /**
+     * Runs a parsed search query against the indexes.
+     *
+     * @param query the query to run
+     * @return the matching photos
+     */
+    public synchronized List<Photo> search(PhotoQuery query) {
+        buildIndexes();
+        return query.execute(registry, tagIndex, dateIndex);
+    }
+
+    /**
+     * Updates the indexes after a photo was added to an album.
+     * A photo that is in several albums is indexed once and stays indexed until it has been removed from all of them.
+     *
+     * @param photo the photo that was added
+     */
+    public synchronized void onPhotoAdded(Photo photo) {
+        // Before the indexes are built it is not known whether the image is new, but hashing a known image is cheap
+        if (registry == null || register(photo)) {
+            hashLater(photo.getImagePath());
+        }
+    }
+
+    // Adds a photo to the indexes, returning true if it is the first photo of its image
+    private boolean register(Photo photo) {
+        if (!registry.retain(photo)) {
+            return false;
+        }
+        share(photo);
+        int id = registry.idOf(photo);
+        tagIndex.addPhoto(id, photo);
+        dateIndex.add(photo.getDate(), id);
+        if (!pathIndex.add(photo)) {
+            return false;
+        }
+        if (contentIndex != null) {
+            contentIndex.add(photo.getImagePath());
+        }
+        return true;
+    }
+
+    /**
+     * Updates the indexes after a photo was removed from an album.
+     *
+     * @param photo the photo that was removed
+     */
+    public synchronized void onPhotoRemoved(Photo photo) {
+        if (registry != null && registry.release(photo)) {
+            int id = registry.idOf(photo);
+            tagIndex.removePhoto(id, photo);
+            dateIndex.remove(photo.getDate(), id);
+            if (pathIndex.remove(photo)) {
+                if (contentIndex != null) {
+                    contentIndex.remove(photo.getImagePath());
+                }
+                if (nearDuplicateIndex != null) {
+                    nearDuplicateIndex.remove(photo.getImagePath());
+                }
+            }
+            registry.remove(photo);
+        }
+    }
+
+    // Makes a newly registered photo share the image record of the other photos of its image
+    private void share(Photo photo) {
+        Photo other = pathIndex.first(photo.getImagePath());
+        if (other == null || other.getImage() == photo.getImage()) {
+            return;
+        }
+        ImageRecord image = other.getImage();
+        List<Tag> added = image.merge(photo.getImage());
+        photo.setImage(image);
+        for (Tag tag : added) {
+            for (Photo shared : pathIndex.get(image.getImagePath())) {
+                tagIndex.addTag(registry.idOf(shared), tag);
+            }
+        }
+        for (Album album : loadedAlbums()) {
+            album.imageShared(image.getImagePath());
+        }
+    }
+
+    // The albums of every user in memory; albums of users not loaded yet count their tags when loaded
+    private List<Album> loadedAlbums() {
+        List<Album> albums = new ArrayList<>();
+        for (User user : usersByName.values()) {
+            if (user.isLoaded()) {
+                albums.addAll(user.getAlbums());
+            }
+        }
+        return albums;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  NEAR-DUPLICATES
+
+    // Computes the perceptual hash of a newly imported image in the background, so it is cached by the time it is searched
+    private void hashLater(String imagePath) {
+        File file = imagePath == null ? null : ContentHashCache.toFile(imagePath);
+        if (file == null) {
+            return;
+        }
+        hasher.execute(() -> {
+            try {
+                long hash = ContentHashCache.getInstance().perceptualHash(file);
+                synchronized (this) {
+                    if (nearDuplicateIndex != null && pathIndex.first(imagePath) != null) {
+                        nearDuplicateIndex.add(imagePath, hash);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error hashing image: " + e.getMessage());
+            }
+        });
+    }
+
+    // Builds the near-duplicate index on first use. Images are decoded in parallel without holding the repository lock.
+    private NearDuplicateIndex nearDuplicates() {
+        List<String> paths;
+        synchronized (this) {
+            if (nearDuplicateIndex != null) {
+                return nearDuplicateIndex;
+            }
+            paths = getPathIndex().paths();
+        }
+        Map<String, Long> hashes = new ConcurrentHashMap<>();
+        paths.parallelStream().forEach(path -> {
+            File file = ContentHashCache.toFile(path);
+            if (file == null || !file.isFile()) {
+                return;
+            }
+            try {
+                hashes.put(path, ContentHashCache.getInstance().perceptualHash(file));
+            } catch (IOException e) {
+                System.err.println("Error hashing image: " + e.getMessage());
+            }
+        });
+        synchronized (this) {
+            if (nearDuplicateIndex == null) {
+                NearDuplicateIndex index = new NearDuplicateIndex();
+                for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+                    if (pathIndex.first(entry.getKey()) != null) {
+                        index.add(entry.getKey(), entry.getValue());
+                    }
+                }
+                nearDuplicateIndex = index;
+                // Images imported while the others were being hashed
+                Set<String> hashed = new HashSet<>(paths);
+                for (String path : pathIndex.paths()) {
+                    if (!hashed.contains(path)) {
+                        hashLater(path);
+                    }
+                }
+            }
+            return nearDuplicateIndex;
+        }
+    }
+
+    /**
+     * Finds the images in any user's albums that look like the image of a photo, such as resized or
+     * re-encoded copies. The first call hashes every image in the library, so it should not be made
+     * on the JavaFX application thread.
+     *
+     * @param photo       the photo
+     * @param maxDistance the largest number of differing hash bits, see {@link #NEAR_DUPLICATE_DISTANCE}
+     * @return one photo of each similar image, most similar first
+     * @throws IOException if the photo's image cannot be read
+     */
+    public List<Photo> findNearDuplicates(Photo photo, int maxDistance) throws IOException {
+        List<Photo> similar = new ArrayList<>();
+        File file = ContentHashCache.toFile(photo.getImagePath());
+        if (file == null) {
+            return similar;
+        }
+        NearDuplicateIndex index = nearDuplicates();
+        long hash = ContentHashCache.getInstance().perceptualHash(file);
+        List<NearDuplicateIndex.Match> matches = index.query(hash, maxDistance);
+        synchronized (this) {
+            for (NearDuplicateIndex.Match match : matches) {
+                Photo other = pathIndex.first(match.getImagePath());
+                if (other != null && !match.getImagePath().equals(photo.getImagePath())) {
+                    similar.add(other);
+                }
+            }
+        }
+        return similar;
+    }
+
+    /**
+     * Groups all images in the library into sets of near-duplicates. Like
+     * {@link #findNearDuplicates(Photo, int)}, the first call hashes every image.
+     *
+     * @param maxDistance the largest number of differing hash bits, see {@link #NEAR_DUPLICATE_DISTANCE}
+     * @return one photo of each image, grouped; only groups with more than one image are returned
+     */
+    public List<List<Photo>> findNearDuplicateGroups(int maxDistance) {
+        List<List<String>> groups = nearDuplicates().groups(maxDistance);
+        List<List<Photo>> result = new ArrayList<>();
+        synchronized (this) {
+            for (List<String> group : groups) {
+                List<Photo> photos = new ArrayList<>();
+                for (String path : group) {
+                    Photo photo = pathIndex.first(path);
+                    if (photo != null) {
+                        photos.add(photo);
+                    }
+                }
+                if (photos.size() > 1) {
+                    result.add(photos);
+                }
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  IMAGE EDITS
+
+    /**
+     * Returns the image record shared by every photo of the same image as the given photo.
+     *
+     * @param photo the photo
+     * @return the shared image record
+     */
+    public synchronized ImageRecord getImage(Photo photo) {
+        buildIndexes();
+        return photo.getImage();
+    }
+
+    /**
+     * Changes the caption of an image, for every photo of it, and records the edit.
+     *
+     * @param photo   a photo of the image
+     * @param caption the new caption
+     */
+    public synchronized void setCaption(Photo photo, String caption) {
+        getImage(photo).setCaption(caption);
+        FileManager.record(JournalEntry.setCaption(photo.getImagePath(), caption));
+        AlbumEventBus.getInstance().publish(AlbumEvent.photoChanged(null, null, photo));
+    }
+
+    /**
+     * Adds a tag to an image, for every photo of it, and records the edit.
+     *
+     * @param photo a photo of the image
+     * @param tag   the tag to add
+     * @return false if the image already had the tag
+     */
+    public synchronized boolean addTag(Photo photo, Tag tag) {
+        ImageRecord image = getImage(photo);
+        if (!image.addTag(tag)) {
+            return false;
+        }
+        for (Photo shared : pathIndex.get(image.getImagePath())) {
+            tagIndex.addTag(registry.idOf(shared), tag);
+        }
+        for (Album album : loadedAlbums()) {
+            album.tagChanged(image.getImagePath(), tag, true);
+        }
+        FileManager.record(JournalEntry.addTag(image.getImagePath(), tag));
+        AlbumEventBus.getInstance().publish(AlbumEvent.tagChanged(photo, tag));
+        return true;
+    }
+
+    /**
+     * Removes a tag from an image, for every photo of it, and records the edit.
+     *
+     * @param photo a photo of the image
+     * @param tag   the tag to remove
+     */
+    public synchronized void removeTag(Photo photo, Tag tag) {
+        ImageRecord image = getImage(photo);
+        if (!image.removeTag(tag)) {
+            return;
+        }
+        for (Photo shared : pathIndex.get(image.getImagePath())) {
+            tagIndex.removeTag(registry.idOf(shared), shared, tag);
+        }
+        for (Album album : loadedAlbums()) {
+            album.tagChanged(image.getImagePath(), tag, false);
+        }
+        FileManager.record(JournalEntry.removeTag(image.getImagePath(), tag));
+        AlbumEventBus.getInstance().publish(AlbumEvent.tagChanged(photo, tag));
+    }
+
+    /**
+     * Writes every pending edit to disk. Called on logout and when the application exits.
+     */
+    public void flush() {
+        FileManager.flush();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * The DateIndex class keeps photo dates in a sorted primitive array so that range queries and the
+ * oldest and newest date are answered by binary search instead of a scan over every photo.
+ * <p>
+ * Each entry pairs a date, stored as epoch seconds, with a photo id. Entries are ordered by date and
+ * then by id, and the same pair may be present more than once. Photos without a date are not indexed.
+ */
+public class DateIndex {
+
+    private long[] keys = new long[16];
+    private int[] ids = new int[16];
+    private int size;
+
+    /**
+     * Returns the key a date is indexed under.
+     *
+     * @param date the date
+     * @return the date as epoch seconds
+     */
+    public static long key(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime date(long key) {
+        return LocalDateTime.ofEpochSecond(key, 0, ZoneOffset.UTC);
+    }
+
+    // Finds the first position whose entry is not ordered before (key, id)
+    private int lowerBound(long key, int id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key || (keys[mid] == key && ids[mid] < id)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds a photo date to the index.
+     *
+     * @param date the date, ignored if null
+     * @param id   the id of the photo
+     */
+    public synchronized void add(LocalDateTime date, int id) {
+        if (date == null) {
+            return;
+        }
+        long key = key(date);
+        int position = lowerBound(key, id);
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        keys[position] = key;
+        ids[position] = id;
+        size++;
+    }
+
+    /**
+     * Removes one occurrence of a photo date from the index.
+     *
+     * @param date the date, ignored if null
+     * @param id   the id of the photo
+     */
+    public synchronized void remove(LocalDateTime date, int id) {
+        if (date == null) {
+            return;
+        }
+        long key = key(date);
+        int position = lowerBound(key, id);
+        if (position < size && keys[position] == key && ids[position] == id) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+    }
+
+    /**
+     * Moves a photo to a new date.
+     *
+     * @param oldDate the date the photo was indexed under
+     * @param newDate the new date
+     * @param id      the id of the photo
+     */
+    public synchronized void update(LocalDateTime oldDate, LocalDateTime newDate, int id) {
+        remove(oldDate, id);
+        add(newDate, id);
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the ids of the photos dated within a range.
+     *
+     * @param from        the start of the range, inclusive
+     * @param toExclusive the end of the range, exclusive
+     * @return the ids, ordered by date
+     */
+    public synchronized int[] range(LocalDateTime from, LocalDateTime toExclusive) {
+        int start = lowerBound(key(from), Integer.MIN_VALUE);
+        int end = lowerBound(key(toExclusive), Integer.MIN_VALUE);
+        return start < end ? Arrays.copyOfRange(ids, start, end) : new int[0];
+    }
+
+    /**
+     * Returns the number of photos dated within a range without copying their ids.
+     *
+     * @param from        the start of the range, inclusive
+     * @param toExclusive the end of the range, exclusive
+     * @return the number of photos in the range
+     */
+    public synchronized int count(LocalDateTime from, LocalDateTime toExclusive) {
+        return Math.max(0, lowerBound(key(toExclusive), Integer.MIN_VALUE) - lowerBound(key(from), Integer.MIN_VALUE));
+    }
+
+    /**
+     * Returns the oldest indexed date.
+     *
+     * @return the oldest date, or null if the index is empty
+     */
+    public synchronized LocalDateTime min() {
+        return size == 0 ? null : date(keys[0]);
+    }
+
+    /**
+     * Returns the newest indexed date.
+     *
+     * @return the newest date, or null if the index is empty
+     */
+    public synchronized LocalDateTime max() {
+        return size == 0 ? null : date(keys[size - 1]);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
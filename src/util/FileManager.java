@@ -3,11 +3,24 @@
  */
 
 package util;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.OptionalDataException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -17,68 +30,349 @@ import model.User;
 
 /**
  * The FileManager class provides methods for saving and loading data, as well as managing tag types.
+ * The data is stored as a snapshot in "data/data.dat" plus a journal of the edits made since the
+ * snapshot was written, see {@link DataJournal}. Snapshots are written either with Java
+ * serialization or with the compact {@link BinaryCodec}; both are recognized when reading.
  */
 public class FileManager {
 
+    /**
+     * The formats a snapshot can be written in.
+     */
+    public enum StorageFormat {
+        /** Java object serialization, the original format. */
+        SERIALIZED,
+        /** The compact binary format of {@link BinaryCodec}. */
+        BINARY
+    }
+
+    private static final String DATA_FILE = "data/data.dat";
+    private static final DataJournal journal = new DataJournal(new File("data/data.journal"));
+    // Held while the snapshot is read or replaced together with the journal that follows it, so a
+    // save and a compaction never interleave; taken before the journal's own locks
+    static final Object snapshotLock = new Object();
+    private static StorageFormat storageFormat = StorageFormat.BINARY;
+
 
-    // Define a private static set to store tag types
-    private static Set<String> tagTypes = new HashSet<>();
-    private static Set<String> restrictedTagTypes = new HashSet<>();
+    /**
+     * Returns the format new snapshots are written in.
+     *
+     * @return the storage format
+     */
+    public static StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
 
-    // Method to get the tag types
-    public static Set<String> getTagTypes() {
-        return tagTypes;
+    /**
+     * Sets the format new snapshots are written in.
+     * Existing snapshots are still read in whatever format they were written in.
+     *
+     * @param format the storage format
+     */
+    public static void setStorageFormat(StorageFormat format) {
+        storageFormat = format;
     }
 
-    // Method to set the tag types
-    public static void setTagTypes(Set<String> tags) {
-        tagTypes = tags;
+
+    /**
+     * The contents of the snapshot file.
+     */
+    static class Snapshot {
+        List<User> users = new ArrayList<>();
+        Set<String> tagTypes = new HashSet<>();
+        Set<String> restrictedTagTypes = new HashSet<>();
+        long sequence;
     }
 
-    
 
     /**
      * Saves the given list of users and set of tag types to a file.
-     * 
+     * This writes a complete snapshot and clears the journal.
+     *
      * @param users    the list of users to be saved
      * @param tagTypes the set of tag types to be saved
      */
     public static void saveData(List<User> users, Set<String> tagTypes, Set<String> restrictedTagTypes) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("data/data.dat"))) {
-            oos.writeObject(users);
-            oos.writeObject(tagTypes); // Save the tags along with the users
-            oos.writeObject(restrictedTagTypes);
-        } catch (IOException e) {
-            System.err.println("Error saving data: " + e.getMessage());
-            e.printStackTrace();
+        Snapshot snapshot = new Snapshot();
+        snapshot.users = users;
+        // Copied, since the sets of GlobalTags cannot be changed and a loaded snapshot is replayed into
+        snapshot.tagTypes = new HashSet<>(tagTypes);
+        snapshot.restrictedTagTypes = new HashSet<>(restrictedTagTypes);
+        synchronized (snapshotLock) {
+            snapshot.sequence = journal.getLastSequence();
+            try {
+                writeSnapshot(snapshot);
+                journal.reset(snapshot.sequence);
+            } catch (IOException e) {
+                System.err.println("Error saving data: " + e.getMessage());
+                e.printStackTrace();
+            }
         }
     }
 
 
+    /**
+     * Appends a single edit to the journal.
+     * Use this instead of {@link #saveData(List, Set, Set)} after an edit, so the cost of
+     * saving does not depend on the size of the library. The edit is written to disk on a
+     * background thread shortly afterwards, see {@link #flush()}.
+     *
+     * @param entry the edit to record
+     */
+    public static void record(JournalEntry entry) {
+        journal.append(entry);
+    }
+
+
+    /**
+     * Writes every recorded edit that is still waiting for the background writer.
+     * Call this before the application exits or the user logs out.
+     */
+    public static void flush() {
+        journal.flush();
+    }
+
+
+    /**
+     * Checks whether some recorded edits have not been written to disk yet.
+     *
+     * @return true if there are unsaved edits
+     */
+    public static boolean isDirty() {
+        return journal.isDirty();
+    }
+
+
+    /**
+     * Sets the longest time a recorded edit may wait before it is written to disk.
+     * Edits recorded within this window are written together.
+     *
+     * @param maxDelayMillis the delay in milliseconds
+     */
+    public static void setSaveDelay(long maxDelayMillis) {
+        journal.setMaxDelay(maxDelayMillis);
+    }
+
+
 
     /**
      * Loads the data from the file "data/data.dat" and returns a list of User objects.
+     * The journal is replayed on top of the snapshot. For binary snapshots the albums of each
+     * user are only read from the file when they are first accessed, see {@link UserStore}.
      * This method also updates the GlobalTags instance with the loaded tag types.
-     * 
+     *
      * @return The list of User objects loaded from the file.
      */
-    @SuppressWarnings("unchecked")
     public static List<User> loadData() {
         List<User> users = null;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("data/data.dat"))) {
-            users = (List<User>) ois.readObject();
-            Set<String> loadedTagTypes = (Set<String>) ois.readObject(); // Load the tags
-            GlobalTags.getInstance().setTagTypes(loadedTagTypes); // Update the GlobalTags instance
-            Set<String> loadedRestrictedTagTypes = (Set<String>) ois.readObject();
-            GlobalTags.getInstance().setRestrictedTagTypes(loadedRestrictedTagTypes);
-        } catch (Exception e) {
-            System.err.println("Error loading data: " + e.getMessage());
-            e.printStackTrace();
+        // The snapshot and the journal are read as one, so a compaction cannot fold entries in between
+        synchronized (snapshotLock) {
+            try {
+                UserStore store = openStore();
+                if (store != null) {
+                    Set<String> loadedTagTypes = store.getTagTypes();
+                    Set<String> loadedRestrictedTagTypes = store.getRestrictedTagTypes();
+                    users = store.buildUsers(journal.readRecords(store.getSequence()), loadedTagTypes, loadedRestrictedTagTypes);
+                    GlobalTags.getInstance().setTagTypes(loadedTagTypes);
+                    GlobalTags.getInstance().setRestrictedTagTypes(loadedRestrictedTagTypes);
+                    return users;
+                }
+                Snapshot snapshot = readSnapshot();
+                for (DataJournal.Record record : journal.readRecords(snapshot.sequence)) {
+                    record.entry.applyTo(snapshot.users, snapshot.tagTypes, snapshot.restrictedTagTypes);
+                }
+                users = snapshot.users;
+                GlobalTags.getInstance().setTagTypes(snapshot.tagTypes); // Update the GlobalTags instance
+                GlobalTags.getInstance().setRestrictedTagTypes(snapshot.restrictedTagTypes);
+            } catch (Exception e) {
+                System.err.println("Error loading data: " + e.getMessage());
+                e.printStackTrace();
+            }
         }
         return users;
     }
 
 
-    
-}
+    /**
+     * Looks up a single user without loading any other user.
+     * With a binary snapshot only the username directory is searched and the user's albums are read
+     * when first accessed; older formats fall back to {@link #loadData()}.
+     * This method also updates the GlobalTags instance with the loaded tag types.
+     *
+     * @param username the username to look up
+     * @return the user, or null if there is no such user
+     * @throws IOException if the data file cannot be read
+     */
+    public static User findUser(String username) throws IOException {
+        UserStore store;
+        List<DataJournal.Record> records;
+        User found;
+        // The directory is searched before a save or compaction can replace the file
+        synchronized (snapshotLock) {
+            store = openStore();
+            if (store == null) {
+                List<User> users = loadData();
+                if (users == null) {
+                    throw new IOException("Error loading user data");
+                }
+                return users.stream().filter(user -> user.getUsername().equals(username)).findFirst().orElse(null);
+            }
+            records = journal.readRecords(store.getSequence());
+            found = store.buildUser(username, records);
+        }
+        Set<String> loadedTagTypes = store.getTagTypes();
+        Set<String> loadedRestrictedTagTypes = store.getRestrictedTagTypes();
+        for (DataJournal.Record record : records) {
+            if (record.entry.getType() == JournalEntry.Type.ADD_TAG_TYPE) {
+                record.entry.applyTo(new ArrayList<>(), loadedTagTypes, loadedRestrictedTagTypes);
+            }
+        }
+        GlobalTags.getInstance().setTagTypes(loadedTagTypes);
+        GlobalTags.getInstance().setRestrictedTagTypes(loadedRestrictedTagTypes);
+        return found;
+    }
+
+
+    /**
+     * Opens the data file if it is a binary snapshot in the current version. Only the header and the
+     * username directory are read; the format is checked from the same read.
+     *
+     * @return the store, or null if the data file is in another format
+     * @throws IOException if the data file cannot be read
+     */
+    private static UserStore openStore() throws IOException {
+        return UserStore.open(new File(DATA_FILE));
+    }
+
+
+    /**
+     * Rewrites the data file in the selected storage format if it was written in another one.
+     * The original file is kept as "data/data.dat.bak". Does nothing if there is no data file
+     * or it is already in the selected format.
+     */
+    public static void migrate() {
+        File dataFile = new File(DATA_FILE);
+        if (!dataFile.exists()) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            try {
+                if (detectFormat() == storageFormat
+                        && (storageFormat != StorageFormat.BINARY || detectVersion() == BinaryCodec.VERSION)) {
+                    return;
+                }
+                Snapshot snapshot = readSnapshot();
+                Files.copy(dataFile.toPath(), Paths.get(DATA_FILE + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+                writeSnapshot(snapshot);
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Error migrating data: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * Determines the format of the current data file from its first bytes.
+     *
+     * @return the format the data file was written in
+     * @throws IOException if the file cannot be read
+     */
+    private static StorageFormat detectFormat() throws IOException {
+        byte[] header = new byte[BinaryCodec.MAGIC.length];
+        try (FileInputStream in = new FileInputStream(DATA_FILE)) {
+            int read = in.readNBytes(header, 0, header.length);
+            return read == header.length && BinaryCodec.isBinary(header) ? StorageFormat.BINARY : StorageFormat.SERIALIZED;
+        }
+    }
+
 
+    /**
+     * Reads the version byte of a binary data file.
+     *
+     * @return the version of the binary format
+     * @throws IOException if the file cannot be read
+     */
+    private static int detectVersion() throws IOException {
+        try (FileInputStream in = new FileInputStream(DATA_FILE)) {
+            in.skipNBytes(BinaryCodec.MAGIC.length);
+            return in.read();
+        }
+    }
+
+
+    /**
+     * Reads the snapshot file without replaying the journal.
+     * Snapshots written before the journal existed have no sequence number and are treated as sequence 0.
+     * Callers that also read the journal hold the snapshot lock across both reads.
+     *
+     * @return the snapshot
+     * @throws IOException            if the file cannot be read
+     * @throws ClassNotFoundException if the file contains unknown classes
+     */
+    @SuppressWarnings("unchecked")
+    static Snapshot readSnapshot() throws IOException, ClassNotFoundException {
+        synchronized (snapshotLock) {
+            UserStore store = openStore();
+            if (store != null) {
+                return store.toSnapshot();
+            }
+            if (detectFormat() == StorageFormat.BINARY) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(DATA_FILE), 1 << 16))) {
+                    in.skipNBytes(BinaryCodec.MAGIC.length + 1);
+                    return BinaryCodec.readVersion1(in);
+                }
+            }
+            Snapshot snapshot = new Snapshot();
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
+                snapshot.users = (List<User>) ois.readObject();
+                snapshot.tagTypes = (Set<String>) ois.readObject(); // Load the tags
+                snapshot.restrictedTagTypes = (Set<String>) ois.readObject();
+                try {
+                    snapshot.sequence = ois.readLong();
+                } catch (OptionalDataException | EOFException e) {
+                    snapshot.sequence = 0;
+                }
+            }
+            return snapshot;
+        }
+    }
+
+
+    /**
+     * Writes a snapshot file in the selected storage format.
+     * The snapshot is written to a temporary file that then replaces the data file, so a reader never
+     * sees a half-written file. {@link UserStore} holds no open handle on the file between reads, so
+     * the replacement also succeeds on Windows; the users it has not loaded yet are read into memory
+     * just before the file is replaced.
+     * Callers that also reset or rewrite the journal hold the snapshot lock across both.
+     *
+     * @param snapshot the snapshot to write
+     * @throws IOException if the file cannot be written
+     */
+    static void writeSnapshot(Snapshot snapshot) throws IOException {
+        synchronized (snapshotLock) {
+            Path dataPath = Paths.get(DATA_FILE);
+            Path tempPath = Paths.get(DATA_FILE + ".tmp");
+            if (storageFormat == StorageFormat.BINARY) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath.toFile()), 1 << 16))) {
+                    BinaryCodec.write(snapshot, out);
+                }
+            } else {
+                try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tempPath.toFile()))) {
+                    oos.writeObject(snapshot.users);
+                    oos.writeObject(snapshot.tagTypes); // Save the tags along with the users
+                    oos.writeObject(snapshot.restrictedTagTypes);
+                    oos.writeLong(snapshot.sequence);
+                }
+            }
+            UserStore.detachAll();
+            try {
+                Files.move(tempPath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, dataPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+}
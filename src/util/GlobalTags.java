@@ -4,47 +4,104 @@
 
 package util;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import model.Tag;
 
 /**
  * The GlobalTags class represents a singleton instance that stores a set of tag types.
- * It provides methods to access and modify the tag types.
+ * It provides methods to access and modify the tag types, and holds the one definition of every tag.
+ * <p>
+ * The tag types are kept in an unchangeable registry object that is replaced as a whole on every
+ * change, so reading them never locks and a reader always sees a consistent pair of tag types and
+ * restricted tag types. Every tag type name ever seen gets a small number, and every tag a number of
+ * its own, both for the run of the application only. Tags with the same type and value are one
+ * shared {@link Tag} object, so tags compare by number and their strings are stored once.
  */
 public class GlobalTags {
-    private static GlobalTags instance;
-    private Set<String> tagTypes;
-    private Set<String> restrictedTagTypes;
+    private static final GlobalTags instance = new GlobalTags();
+
+    private final AtomicReference<Registry> registry = new AtomicReference<>(new Registry());
+    // The definition of each tag, by type and value
+    private final Map<String, Map<String, Tag>> definitions = new ConcurrentHashMap<>();
+    // The definitions by number; replaced by a longer copy when full
+    private volatile Tag[] tagsById = new Tag[64];
+    private int tagCount;
 
     /**
-     * The GlobalTags class represents a utility class for managing global tags.
-     * It provides methods for initializing and managing tag types.
+     * The tag types at one point in time. Never changed once made.
      */
+    private static final class Registry {
+        final Set<String> tagTypes;
+        final Set<String> restrictedTagTypes;
+        final Map<String, Integer> typeIds;
+        final String[] typeNames;
+        final boolean[] restricted;
+
+        Registry() {
+            this(Collections.emptySet(), Collections.emptySet(), Collections.emptyMap(), new String[0]);
+        }
+
+        Registry(Set<String> tagTypes, Set<String> restrictedTagTypes, Map<String, Integer> typeIds, String[] typeNames) {
+            this.tagTypes = tagTypes;
+            this.restrictedTagTypes = restrictedTagTypes;
+            this.typeIds = typeIds;
+            this.typeNames = typeNames;
+            this.restricted = new boolean[typeNames.length];
+            for (String type : restrictedTagTypes) {
+                Integer id = typeIds.get(type);
+                if (id != null) {
+                    restricted[id] = true;
+                }
+            }
+        }
+
+        // Returns a registry with the given tag types, numbering these and any other names not seen before
+        Registry with(Set<String> types, Set<String> restrictedTypes, String... otherNames) {
+            Map<String, Integer> ids = new HashMap<>(typeIds);
+            String[] names = typeNames;
+            for (Iterable<String> added : Arrays.asList(types, restrictedTypes, Arrays.asList(otherNames))) {
+                for (String type : added) {
+                    if (!ids.containsKey(type)) {
+                        names = Arrays.copyOf(names, names.length + 1);
+                        names[names.length - 1] = type;
+                        ids.put(type, names.length - 1);
+                    }
+                }
+            }
+            return new Registry(types == tagTypes ? tagTypes : Collections.unmodifiableSet(new LinkedHashSet<>(types)),
+                    restrictedTypes == restrictedTagTypes ? restrictedTagTypes
+                            : Collections.unmodifiableSet(new LinkedHashSet<>(restrictedTypes)),
+                    Collections.unmodifiableMap(ids), names);
+        }
+    }
+
     private GlobalTags() {
-        tagTypes = new HashSet<>(); // Initialize the tagTypes set
-        restrictedTagTypes = new HashSet<>();
     }
 
     /**
      * Returns the singleton instance of the GlobalTags class.
-     * If the instance does not exist, it is created.
      *
      * @return the singleton instance of the GlobalTags class
      */
-    public static synchronized GlobalTags getInstance() {
-        if (instance == null) {
-            instance = new GlobalTags(); // Create a new instance if it doesn't exist
-        }
-        return instance; // Return the instance
+    public static GlobalTags getInstance() {
+        return instance;
     }
 
     /**
      * Returns the set of tag types.
      *
-     * @return the set of tag types
+     * @return the set of tag types, which cannot be changed and does not follow later changes
      */
     public Set<String> getTagTypes() {
-        return tagTypes; // Return the tagTypes set
+        return registry.get().tagTypes;
     }
 
     /**
@@ -53,7 +110,7 @@ public class GlobalTags {
      * @param tagTypes the set of tag types to be set
      */
     public void setTagTypes(Set<String> tagTypes) {
-        this.tagTypes = tagTypes; // Set the tagTypes set
+        registry.updateAndGet(current -> current.with(tagTypes, current.restrictedTagTypes));
     }
 
     /**
@@ -62,16 +119,35 @@ public class GlobalTags {
      * @param tagType the tag type to be added
      */
     public void addTagType(String tagType) {
-        tagTypes.add(tagType); // Add a new tagType to the tagTypes set
+        addTagType(tagType, false);
+    }
+
+    /**
+     * Adds a new tag type, and marks it as restricted in the same change.
+     *
+     * @param tagType    the tag type to be added
+     * @param restricted whether a photo may have only one tag of this type
+     */
+    public void addTagType(String tagType, boolean restricted) {
+        registry.updateAndGet(current -> {
+            Set<String> types = new LinkedHashSet<>(current.tagTypes);
+            types.add(tagType);
+            Set<String> restrictedTypes = current.restrictedTagTypes;
+            if (restricted) {
+                restrictedTypes = new LinkedHashSet<>(restrictedTypes);
+                restrictedTypes.add(tagType);
+            }
+            return current.with(types, restrictedTypes);
+        });
     }
 
         /**
      * Returns the set of restricted tag types.
      *
-     * @return the set of restricted tag types
+     * @return the set of restricted tag types, which cannot be changed and does not follow later changes
      */
     public Set<String> getRestrictedTagTypes() {
-        return restrictedTagTypes;
+        return registry.get().restrictedTagTypes;
     }
 
     /**
@@ -80,7 +156,11 @@ public class GlobalTags {
      * @param restrictedTagType the tag type to be added as restricted
      */
     public void addRestrictedTagType(String restrictedTagType) {
-        restrictedTagTypes.add(restrictedTagType);
+        registry.updateAndGet(current -> {
+            Set<String> restrictedTypes = new LinkedHashSet<>(current.restrictedTagTypes);
+            restrictedTypes.add(restrictedTagType);
+            return current.with(current.tagTypes, restrictedTypes);
+        });
     }
 
     /**
@@ -90,17 +170,97 @@ public class GlobalTags {
      * @return true if the tag type is restricted, false otherwise
      */
     public boolean isTagTypeRestricted(String tagType) {
-        return restrictedTagTypes.contains(tagType);
+        return registry.get().restrictedTagTypes.contains(tagType);
+    }
+
+    /**
+     * Checks if a tag type is restricted, by its number.
+     *
+     * @param typeId the number of the tag type, see {@link #typeId(String)}
+     * @return true if the tag type is restricted, false otherwise
+     */
+    public boolean isTagTypeRestricted(int typeId) {
+        boolean[] restricted = registry.get().restricted;
+        return typeId >= 0 && typeId < restricted.length && restricted[typeId];
     }
 
     /**
      * Sets the restricted tag types for this object.
-     * 
+     *
      * @param restrictedTagTypes the set of restricted tag types to be set
-     * 
+     *
      */
     public void setRestrictedTagTypes(Set<String> restrictedTagTypes) {
-        this.restrictedTagTypes = restrictedTagTypes;
+        registry.updateAndGet(current -> current.with(current.tagTypes, restrictedTagTypes));
+    }
+
+    /**
+     * Returns the number of a tag type name, giving it one if it has none yet. The name does not
+     * become one of the tag types offered to the user.
+     *
+     * @param tagType the tag type name
+     * @return the number of the tag type
+     */
+    public int typeId(String tagType) {
+        Integer id = registry.get().typeIds.get(tagType);
+        if (id != null) {
+            return id;
+        }
+        return registry.updateAndGet(current -> current.typeIds.containsKey(tagType) ? current
+                : current.with(current.tagTypes, current.restrictedTagTypes, tagType)).typeIds.get(tagType);
+    }
+
+    /**
+     * Returns the name of a tag type.
+     *
+     * @param typeId the number of the tag type
+     * @return the name
+     */
+    public String typeName(int typeId) {
+        return registry.get().typeNames[typeId];
+    }
+
+    /**
+     * Returns the definition of a tag, making it the first time the tag is asked for.
+     *
+     * @param tagType  the tag type name
+     * @param tagValue the value
+     * @return the one tag with this type and value
+     */
+    public Tag tag(String tagType, String tagValue) {
+        Map<String, Tag> values = definitions.get(tagType);
+        if (values == null) {
+            values = definitions.computeIfAbsent(tagType, type -> new ConcurrentHashMap<>());
+        }
+        Tag tag = values.get(tagValue);
+        if (tag != null) {
+            return tag;
+        }
+        int typeId = typeId(tagType);
+        String typeName = typeName(typeId);
+        return values.computeIfAbsent(tagValue, value -> define(typeId, typeName, value));
+    }
+
+    /**
+     * Returns a tag by its number.
+     *
+     * @param id the number of the tag, see {@link Tag#getId()}
+     * @return the tag
+     */
+    public Tag tagById(int id) {
+        return tagsById[id];
+    }
+
+    // Numbers a new tag; only called once for each type and value
+    private synchronized Tag define(int typeId, String typeName, String value) {
+        Tag tag = new Tag(tagCount, typeId, typeName, value);
+        Tag[] byId = tagsById;
+        if (tagCount == byId.length) {
+            byId = Arrays.copyOf(byId, byId.length * 2);
+        }
+        byId[tagCount++] = tag;
+        tagsById = byId;
+        return tag;
     }
 
 }
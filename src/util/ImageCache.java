@@ -0,0 +1,187 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javafx.scene.image.Image;
+
+/**
+ * The ImageCache class keeps decoded images at display size for a view that pages through photos,
+ * such as the slideshow.
+ * <p>
+ * Images are decoded on background threads at the height they are shown at, not at full
+ * resolution, so a large photo costs no more memory than a small one. The cache is bounded by the
+ * memory the decoded pixels take and evicts the least recently used images, so paging through a
+ * huge album does not grow the heap. The view calls {@link #prefetch(List, int)} with the photos
+ * around the current one; they are decoded nearest first, and a queued decode is skipped if the
+ * view has moved on before it starts.
+ */
+public class ImageCache {
+
+    private static final int LOADER_THREADS = 2;
+
+    // Shared by all caches, so open views do not each start their own threads
+    private static final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, task -> {
+        Thread thread = new Thread(task, "image-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Key {
+        final String imagePath;
+        final int height;
+
+        Key(String imagePath, int height) {
+            this.imagePath = imagePath;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return height == other.height && imagePath.equals(other.imagePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return imagePath.hashCode() * 31 + height;
+        }
+    }
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Key, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Image>> loading = new HashMap<>();
+    private Set<Key> wanted = new HashSet<>();
+    private double averageDecodeMillis;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the most memory the decoded images may take
+     */
+    public ImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns an image decoded to a height, decoding it in the background if it is not cached.
+     *
+     * @param imagePath the URL of the image
+     * @param height    the height to decode the image at; the width follows from its aspect ratio
+     * @return a future that completes with the image, or with null if a later prefetch no longer
+     *         wanted it before its decode started
+     */
+    public synchronized CompletableFuture<Image> load(String imagePath, int height) {
+        Key key = new Key(imagePath, height);
+        wanted.add(key);
+        return start(key);
+    }
+
+    /**
+     * Decodes the images a view is about to show, replacing the previous prefetch. Images are
+     * decoded in list order, so the list should start with the image shown now and continue
+     * with its nearest neighbours.
+     *
+     * @param imagePaths the URLs of the images
+     * @param height     the height to decode the images at
+     */
+    public synchronized void prefetch(List<String> imagePaths, int height) {
+        wanted = new HashSet<>();
+        for (String imagePath : imagePaths) {
+            Key key = new Key(imagePath, height);
+            wanted.add(key);
+            start(key);
+        }
+    }
+
+    private CompletableFuture<Image> start(Key key) {
+        Image image = images.get(key);
+        if (image != null) {
+            return CompletableFuture.completedFuture(image);
+        }
+        CompletableFuture<Image> future = loading.get(key);
+        if (future == null) {
+            future = CompletableFuture.supplyAsync(() -> decode(key), loader);
+            loading.put(key, future);
+        }
+        return future;
+    }
+
+    // Runs on a loader thread
+    private Image decode(Key key) {
+        synchronized (this) {
+            if (!wanted.contains(key)) {
+                // The view has moved on; a later prefetch decodes the image again if it is needed
+                loading.remove(key);
+                return null;
+            }
+        }
+        long start = System.nanoTime();
+        Image image = new Image(key.imagePath, 0, key.height, true, true, false);
+        double millis = (System.nanoTime() - start) / 1e6;
+        synchronized (this) {
+            // Moving average that follows changes in decode time over the last few images
+            averageDecodeMillis = averageDecodeMillis == 0 ? millis : averageDecodeMillis * 0.8 + millis * 0.2;
+            loading.remove(key);
+            if (!image.isError()) {
+                Image old = images.put(key, image);
+                if (old != null) {
+                    bytes -= sizeOf(old);
+                }
+                bytes += sizeOf(image);
+                evict(key);
+            }
+        }
+        return image;
+    }
+
+    // Evicts the least recently used images until the cache fits, keeping the one just added
+    private void evict(Key keep) {
+        Iterator<Map.Entry<Key, Image>> iterator = images.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, Image> entry = iterator.next();
+            if (!entry.getKey().equals(keep)) {
+                bytes -= sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    /**
+     * Returns how long recent images took to decode, so a view can decide how far ahead to prefetch.
+     *
+     * @return the moving average decode time in milliseconds, or 0 before the first decode
+     */
+    public synchronized double getAverageDecodeMillis() {
+        return averageDecodeMillis;
+    }
+
+    /**
+     * Drops every cached image and skips every queued decode.
+     */
+    public synchronized void clear() {
+        images.clear();
+        wanted.clear();
+        bytes = 0;
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The ImageMetadata class reads the capture date, size and orientation of an image file.
+ * <p>
+ * Only the header of the file is read: for a JPEG the segments before the image data, for a PNG the
+ * chunks before the first image data chunk, and the fixed headers of GIF and BMP files. That is
+ * usually a few kilobytes, and no pixels are decoded, so reading the metadata of a large import is
+ * limited by the disk rather than the processor. The capture date is the EXIF DateTimeOriginal of
+ * the image; if the image has none, the file's modification time is used instead.
+ */
+public class ImageMetadata {
+
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    // TIFF tags
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_PIXEL_WIDTH = 0xA002;
+    private static final int TAG_PIXEL_HEIGHT = 0xA003;
+
+    private int width;
+    private int height;
+    private int orientation = 1;
+    private LocalDateTime dateTaken;
+    private LocalDateTime dateModified;
+
+    private ImageMetadata() {
+    }
+
+    /**
+     * Reads the metadata of an image file. A file whose header cannot be understood still has a
+     * date, its modification time, but no size.
+     *
+     * @param file the image file
+     * @return the metadata
+     * @throws IOException if the file cannot be read
+     */
+    public static ImageMetadata read(File file) throws IOException {
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.dateModified = LocalDateTime.ofInstant(Files.getLastModifiedTime(file.toPath()).toInstant(), ZoneId.systemDefault());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192))) {
+            int first = in.readUnsignedByte();
+            int second = in.readUnsignedByte();
+            if (first == 0xFF && second == 0xD8) {
+                metadata.readJpeg(in);
+            } else if (first == 0x89 && second == 'P') {
+                metadata.readPng(in);
+            } else if (first == 'G' && second == 'I') {
+                metadata.readGif(in);
+            } else if (first == 'B' && second == 'M') {
+                metadata.readBmp(in);
+            }
+        } catch (EOFException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // A truncated or malformed header; keep whatever was read before it
+        }
+        return metadata;
+    }
+
+    /**
+     * Returns the date the photo was taken, or the file's modification time if the image does not record it.
+     *
+     * @return the date of the photo
+     */
+    public LocalDateTime getDate() {
+        return dateTaken != null ? dateTaken : dateModified;
+    }
+
+    /**
+     * Returns the capture date recorded in the image.
+     *
+     * @return the capture date, or null if the image does not record one
+     */
+    public LocalDateTime getDateTaken() {
+        return dateTaken;
+    }
+
+    /**
+     * Returns the width of the stored image, before any rotation by its orientation.
+     *
+     * @return the width in pixels, or 0 if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the stored image, before any rotation by its orientation.
+     *
+     * @return the height in pixels, or 0 if unknown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the EXIF orientation of the image, which tells how the stored image must be rotated
+     * and flipped to be shown upright: 1 is upright, 3 is upside down, 6 and 8 are turned a quarter
+     * clockwise and counterclockwise, and 2, 4, 5 and 7 are the mirrored versions of those.
+     *
+     * @return the orientation, from 1 to 8
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  FORMATS
+
+    private void readJpeg(DataInputStream in) throws IOException {
+        while (true) {
+            int marker = in.readUnsignedByte();
+            if (marker != 0xFF) {
+                return;
+            }
+            while (marker == 0xFF) {
+                marker = in.readUnsignedByte();
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            // Start of scan or end of image: the header is over
+            if (marker == 0xDA || marker == 0xD9) {
+                return;
+            }
+            int length = in.readUnsignedShort() - 2;
+            if (marker == 0xE1 && dateTaken == null && length > 6) {
+                byte[] segment = new byte[length];
+                in.readFully(segment);
+                if (segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f') {
+                    readTiff(ByteBuffer.wrap(segment, 6, length - 6).slice());
+                }
+            } else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                // Start of frame; EXIF comes before it, so nothing else is needed
+                in.readUnsignedByte();
+                height = in.readUnsignedShort();
+                width = in.readUnsignedShort();
+                return;
+            } else {
+                in.skipNBytes(length);
+            }
+        }
+    }
+
+    private void readPng(DataInputStream in) throws IOException {
+        in.skipNBytes(6);
+        while (true) {
+            int length = in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            String chunk = new String(type, StandardCharsets.US_ASCII);
+            if (chunk.equals("IDAT") || chunk.equals("IEND") || length < 0) {
+                return;
+            }
+            if (chunk.equals("IHDR")) {
+                width = in.readInt();
+                height = in.readInt();
+                in.skipNBytes(length - 8);
+            } else if (chunk.equals("eXIf")) {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                readTiff(ByteBuffer.wrap(data));
+            } else {
+                in.skipNBytes(length);
+            }
+            // CRC
+            in.skipNBytes(4);
+        }
+    }
+
+    private void readGif(DataInputStream in) throws IOException {
+        in.skipNBytes(4);
+        width = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        height = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+    }
+
+    private void readBmp(DataInputStream in) throws IOException {
+        in.skipNBytes(16);
+        width = Math.abs(Integer.reverseBytes(in.readInt()));
+        // The height is negative for images stored top row first
+        height = Math.abs(Integer.reverseBytes(in.readInt()));
+    }
+
+    // Reads the first image directory of EXIF data and the EXIF directory it points to
+    private void readTiff(ByteBuffer tiff) {
+        if (tiff.remaining() < 8) {
+            return;
+        }
+        tiff.order(tiff.get(0) == 'M' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int exifOffset = readDirectory(tiff, tiff.getInt(4));
+        if (exifOffset > 0) {
+            readDirectory(tiff, exifOffset);
+        }
+    }
+
+    // Returns the offset of the EXIF directory if this directory points to one
+    private int readDirectory(ByteBuffer tiff, int offset) {
+        int exifOffset = 0;
+        int count = Short.toUnsignedInt(tiff.getShort(offset));
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12;
+            int tag = Short.toUnsignedInt(tiff.getShort(entry));
+            int type = Short.toUnsignedInt(tiff.getShort(entry + 2));
+            switch (tag) {
+                case TAG_ORIENTATION:
+                    int value = Short.toUnsignedInt(tiff.getShort(entry + 8));
+                    orientation = value >= 1 && value <= 8 ? value : 1;
+                    break;
+                case TAG_EXIF_IFD:
+                    exifOffset = tiff.getInt(entry + 8);
+                    break;
+                case TAG_DATE_TIME_ORIGINAL:
+                    dateTaken = parseDate(tiff, entry);
+                    break;
+                case TAG_DATE_TIME:
+                    // The date the file was last changed by the camera or an editor, only used without DateTimeOriginal
+                    if (dateTaken == null) {
+                        dateTaken = parseDate(tiff, entry);
+                    }
+                    break;
+                case TAG_PIXEL_WIDTH:
+                    width = type == 3 ? Short.toUnsignedInt(tiff.getShort(entry + 8)) : tiff.getInt(entry + 8);
+                    break;
+                case TAG_PIXEL_HEIGHT:
+                    height = type == 3 ? Short.toUnsignedInt(tiff.getShort(entry + 8)) : tiff.getInt(entry + 8);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return exifOffset;
+    }
+
+    private static LocalDateTime parseDate(ByteBuffer tiff, int entry) {
+        int length = tiff.getInt(entry + 4);
+        if (length < 19) {
+            return null;
+        }
+        int offset = tiff.getInt(entry + 8);
+        byte[] text = new byte[19];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = tiff.get(offset + i);
+        }
+        try {
+            return LocalDateTime.parse(new String(text, StandardCharsets.US_ASCII), EXIF_DATE);
+        } catch (DateTimeParseException e) {
+            // Cameras without a clock write zeros or spaces
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.Photo;
+
+/**
+ * The ImagePathIndex class maps an image path to every photo that shows that image.
+ * <p>
+ * The same image file can be added to several albums, and each album holds its own photo for it.
+ * Captions and tags belong to the image, and all photos with the same path share one image record.
+ * This index finds the photos that share a record directly instead of scanning every user's albums.
+ * Paths are compared exactly as stored, the same way journal entries are replayed.
+ */
+public class ImagePathIndex {
+
+    private final Map<String, List<Photo>> photosByPath = new HashMap<>();
+
+    /**
+     * Indexes a newly registered photo.
+     *
+     * @param photo the photo
+     * @return true if no other photo shows the same image
+     */
+    public synchronized boolean add(Photo photo) {
+        if (photo.getImagePath() == null) {
+            return false;
+        }
+        List<Photo> photos = photosByPath.computeIfAbsent(photo.getImagePath(), path -> new ArrayList<>(1));
+        photos.add(photo);
+        return photos.size() == 1;
+    }
+
+    /**
+     * Removes a photo that is no longer in any album.
+     *
+     * @param photo the photo
+     * @return true if no photo shows the image any more
+     */
+    public synchronized boolean remove(Photo photo) {
+        List<Photo> photos = photosByPath.get(photo.getImagePath());
+        if (photos == null) {
+            return false;
+        }
+        for (int i = 0; i < photos.size(); i++) {
+            if (photos.get(i) == photo) {
+                photos.remove(i);
+                break;
+            }
+        }
+        if (photos.isEmpty()) {
+            photosByPath.remove(photo.getImagePath());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the paths of all indexed images.
+     *
+     * @return the image paths
+     */
+    public synchronized List<String> paths() {
+        return new ArrayList<>(photosByPath.keySet());
+    }
+
+    /**
+     * Returns every photo of an image.
+     *
+     * @param imagePath the image path
+     * @return the photos, empty if no album contains the image
+     */
+    public synchronized List<Photo> get(String imagePath) {
+        List<Photo> photos = photosByPath.get(imagePath);
+        return photos == null ? new ArrayList<>() : new ArrayList<>(photos);
+    }
+
+    /**
+     * Returns any one photo of an image.
+     *
+     * @param imagePath the image path
+     * @return a photo of the image, or null if no album contains it
+     */
+    public synchronized Photo first(String imagePath) {
+        List<Photo> photos = photosByPath.get(imagePath);
+        return photos == null ? null : photos.get(0);
+    }
+}
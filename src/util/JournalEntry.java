@@ -0,0 +1,427 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * A single edit recorded in the data journal.
+ * Each entry describes one mutation of the user/album/photo graph and knows how to
+ * write itself to the journal, read itself back, and replay itself against a loaded graph.
+ * Users are identified by username, albums by their index in the user's album list and
+ * photos by their index in the album. Caption and tag edits are keyed by image path,
+ * because they are applied to every photo that shares the same image.
+ */
+public class JournalEntry {
+
+    /**
+     * The kinds of edits that can be recorded in the journal.
+     */
+    public enum Type {
+        ADD_USER, REMOVE_USER,
+        ADD_ALBUM, RENAME_ALBUM, REMOVE_ALBUM,
+        ADD_PHOTO, REMOVE_PHOTO, MOVE_PHOTO, SET_PHOTO_DATE,
+        SET_CAPTION, ADD_TAG, REMOVE_TAG,
+        ADD_TAG_TYPE
+    }
+
+    private final Type type;
+    private String username;
+    private int albumIndex = -1;
+    private int photoIndex = -1;
+    private int targetAlbumIndex = -1;
+    private String text;
+    private String value;
+    private boolean flag;
+    private Photo photo;
+    private Tag tag;
+    private LocalDateTime date;
+
+    private JournalEntry(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Checks whether this entry applies to photos of every user rather than to a single user.
+     *
+     * @return true for caption and tag entries, which are keyed by image path
+     */
+    public boolean isGlobal() {
+        return type == Type.SET_CAPTION || type == Type.ADD_TAG || type == Type.REMOVE_TAG;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  FACTORIES
+
+    public static JournalEntry addUser(String username) {
+        JournalEntry entry = new JournalEntry(Type.ADD_USER);
+        entry.username = username;
+        return entry;
+    }
+
+    public static JournalEntry removeUser(String username) {
+        JournalEntry entry = new JournalEntry(Type.REMOVE_USER);
+        entry.username = username;
+        return entry;
+    }
+
+    public static JournalEntry addAlbum(String username, String albumName) {
+        JournalEntry entry = new JournalEntry(Type.ADD_ALBUM);
+        entry.username = username;
+        entry.text = albumName;
+        return entry;
+    }
+
+    public static JournalEntry renameAlbum(String username, int albumIndex, String newName) {
+        JournalEntry entry = new JournalEntry(Type.RENAME_ALBUM);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        entry.text = newName;
+        return entry;
+    }
+
+    public static JournalEntry removeAlbum(String username, int albumIndex) {
+        JournalEntry entry = new JournalEntry(Type.REMOVE_ALBUM);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        return entry;
+    }
+
+    public static JournalEntry addPhoto(String username, int albumIndex, Photo photo) {
+        JournalEntry entry = new JournalEntry(Type.ADD_PHOTO);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        entry.photo = photo;
+        return entry;
+    }
+
+    public static JournalEntry removePhoto(String username, int albumIndex, int photoIndex) {
+        JournalEntry entry = new JournalEntry(Type.REMOVE_PHOTO);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        entry.photoIndex = photoIndex;
+        return entry;
+    }
+
+    public static JournalEntry movePhoto(String username, int albumIndex, int photoIndex, int targetAlbumIndex) {
+        JournalEntry entry = new JournalEntry(Type.MOVE_PHOTO);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        entry.photoIndex = photoIndex;
+        entry.targetAlbumIndex = targetAlbumIndex;
+        return entry;
+    }
+
+    public static JournalEntry setPhotoDate(String username, int albumIndex, int photoIndex, LocalDateTime date) {
+        JournalEntry entry = new JournalEntry(Type.SET_PHOTO_DATE);
+        entry.username = username;
+        entry.albumIndex = albumIndex;
+        entry.photoIndex = photoIndex;
+        entry.date = date;
+        return entry;
+    }
+
+    public static JournalEntry setCaption(String imagePath, String caption) {
+        JournalEntry entry = new JournalEntry(Type.SET_CAPTION);
+        entry.text = imagePath;
+        entry.value = caption;
+        return entry;
+    }
+
+    public static JournalEntry addTag(String imagePath, Tag tag) {
+        JournalEntry entry = new JournalEntry(Type.ADD_TAG);
+        entry.text = imagePath;
+        entry.tag = tag;
+        return entry;
+    }
+
+    public static JournalEntry removeTag(String imagePath, Tag tag) {
+        JournalEntry entry = new JournalEntry(Type.REMOVE_TAG);
+        entry.text = imagePath;
+        entry.tag = tag;
+        return entry;
+    }
+
+    public static JournalEntry addTagType(String tagType, boolean restricted) {
+        JournalEntry entry = new JournalEntry(Type.ADD_TAG_TYPE);
+        entry.text = tagType;
+        entry.flag = restricted;
+        return entry;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  REPLAY
+
+    /**
+     * Applies this entry to a loaded graph.
+     * Entries that refer to users, albums or photos that no longer exist are ignored.
+     *
+     * @param users              the list of users to update
+     * @param tagTypes           the set of tag types to update
+     * @param restrictedTagTypes the set of restricted tag types to update
+     */
+    public void applyTo(List<User> users, Set<String> tagTypes, Set<String> restrictedTagTypes) {
+        switch (type) {
+            case ADD_USER:
+                if (findUser(users) == null) {
+                    users.add(new User(username));
+                }
+                return;
+            case REMOVE_USER:
+                users.removeIf(user -> user.getUsername().equals(username));
+                return;
+            case ADD_TAG_TYPE:
+                tagTypes.add(text);
+                if (flag) {
+                    restrictedTagTypes.add(text);
+                }
+                return;
+            case SET_CAPTION:
+            case ADD_TAG:
+            case REMOVE_TAG:
+                for (User user : users) {
+                    applyTo(user);
+                }
+                return;
+            default:
+                User user = findUser(users);
+                if (user != null) {
+                    applyTo(user);
+                }
+        }
+    }
+
+    /**
+     * Applies this entry to a single user.
+     * User-wide entries are ignored; caption and tag entries apply to every matching photo of the user.
+     *
+     * @param user the user to update
+     */
+    public void applyTo(User user) {
+        List<Album> albums = user.getAlbums();
+        switch (type) {
+            case ADD_ALBUM:
+                user.addAlbum(new Album(text));
+                break;
+            case RENAME_ALBUM:
+                if (validAlbum(albums, albumIndex)) {
+                    albums.get(albumIndex).setAlbumName(text);
+                }
+                break;
+            case REMOVE_ALBUM:
+                if (validAlbum(albums, albumIndex)) {
+                    user.removeAlbum(albumIndex);
+                }
+                break;
+            case ADD_PHOTO:
+                if (validAlbum(albums, albumIndex)) {
+                    albums.get(albumIndex).addPhoto(photo);
+                }
+                break;
+            case REMOVE_PHOTO:
+                if (validPhoto(albums)) {
+                    albums.get(albumIndex).removePhoto(photoIndex);
+                }
+                break;
+            case MOVE_PHOTO:
+                if (validPhoto(albums) && validAlbum(albums, targetAlbumIndex)) {
+                    Photo moved = albums.get(albumIndex).removePhoto(photoIndex);
+                    albums.get(targetAlbumIndex).addPhoto(moved);
+                }
+                break;
+            case SET_PHOTO_DATE:
+                if (validPhoto(albums)) {
+                    Photo dated = albums.get(albumIndex).getPhotos().get(photoIndex);
+                    LocalDateTime oldDate = dated.getDate();
+                    dated.setDate(date);
+                    for (Album album : albums) {
+                        album.photoDateChanged(dated, oldDate);
+                    }
+                }
+                break;
+            case SET_CAPTION:
+            case ADD_TAG:
+            case REMOVE_TAG:
+                for (Album album : albums) {
+                    for (Photo p : album.getPhotos()) {
+                        if (!text.equals(p.getImagePath())) {
+                            continue;
+                        }
+                        if (type == Type.SET_CAPTION) {
+                            p.setCaption(value);
+                        } else if (type == Type.ADD_TAG) {
+                            p.addTag(tag);
+                        } else {
+                            p.removeTag(tag);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private User findUser(List<User> users) {
+        for (User user : users) {
+            if (user.getUsername().equals(username)) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    private static boolean validAlbum(List<Album> albums, int index) {
+        return index >= 0 && index < albums.size();
+    }
+
+    private boolean validPhoto(List<Album> albums) {
+        return validAlbum(albums, albumIndex)
+                && photoIndex >= 0 && photoIndex < albums.get(albumIndex).getPhotos().size();
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  ENCODING
+
+    /**
+     * Writes this entry to the given stream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the entry cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        writeString(out, username);
+        out.writeInt(albumIndex);
+        out.writeInt(photoIndex);
+        out.writeInt(targetAlbumIndex);
+        writeString(out, text);
+        writeString(out, value);
+        out.writeBoolean(flag);
+        out.writeBoolean(photo != null);
+        if (photo != null) {
+            writePhoto(out, photo);
+        }
+        out.writeBoolean(tag != null);
+        if (tag != null) {
+            writeString(out, tag.getTagName());
+            writeString(out, tag.getTagValue());
+        }
+        writeDate(out, date);
+    }
+
+    /**
+     * Reads an entry previously written with {@link #write(DataOutputStream)}.
+     *
+     * @param in the stream to read from
+     * @return the entry that was read
+     * @throws IOException if the entry is truncated or malformed
+     */
+    public static JournalEntry read(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown journal entry type: " + ordinal);
+        }
+        JournalEntry entry = new JournalEntry(Type.values()[ordinal]);
+        entry.username = readString(in);
+        entry.albumIndex = in.readInt();
+        entry.photoIndex = in.readInt();
+        entry.targetAlbumIndex = in.readInt();
+        entry.text = readString(in);
+        entry.value = readString(in);
+        entry.flag = in.readBoolean();
+        if (in.readBoolean()) {
+            entry.photo = readPhoto(in);
+        }
+        if (in.readBoolean()) {
+            entry.tag = GlobalTags.getInstance().tag(readString(in), readString(in));
+        }
+        entry.date = readDate(in);
+        return entry;
+    }
+
+    private static void writePhoto(DataOutputStream out, Photo photo) throws IOException {
+        writeString(out, photo.getName());
+        writeString(out, photo.getCaption());
+        writeString(out, photo.getImagePath());
+        writeDate(out, photo.getDate());
+        out.writeInt(photo.getTags().size());
+        for (Tag tag : photo.getTags()) {
+            writeString(out, tag.getTagName());
+            writeString(out, tag.getTagValue());
+        }
+    }
+
+    private static Photo readPhoto(DataInputStream in) throws IOException {
+        String name = readString(in);
+        String caption = readString(in);
+        String imagePath = readString(in);
+        Photo photo = new Photo(name, readDate(in));
+        photo.setCaption(caption);
+        photo.setImagePath(imagePath);
+        int tagCount = in.readInt();
+        for (int i = 0; i < tagCount; i++) {
+            photo.addTag(GlobalTags.getInstance().tag(readString(in), readString(in)));
+        }
+        return photo;
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDateTime date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null) {
+            out.writeLong(date.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(date.getNano());
+        }
+    }
+
+    private static LocalDateTime readDate(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long seconds = in.readLong();
+        return LocalDateTime.ofEpochSecond(seconds, in.readInt(), ZoneOffset.UTC);
+    }
+
+    // writeUTF is limited to 64KB, which long captions can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The NearDuplicateIndex class finds images that look alike, such as resized or re-encoded copies
+ * of the same shot.
+ * <p>
+ * Every image is indexed by its {@link PerceptualHash}, and two images are near-duplicates when
+ * their hashes differ in at most a given number of bits. The hashes are kept in a BK-tree: each
+ * child of a node is filed under its distance to that node, and by the triangle inequality a query
+ * only has to visit the children whose distance is within the query's range of its own distance to
+ * the node. A search therefore looks at a small part of the library instead of every image.
+ * <p>
+ * A removed image leaves its node in place as long as other nodes hang below it, and the tree is
+ * rebuilt once more nodes are empty than in use.
+ */
+public class NearDuplicateIndex {
+
+    private static final class Node {
+        final long hash;
+        final List<String> paths = new ArrayList<>(1);
+        // Indexed by distance to this node, allocated on the first child
+        Node[] children;
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * An image found by a query, with its distance to the queried hash.
+     */
+    public static final class Match {
+        private final String imagePath;
+        private final int distance;
+
+        Match(String imagePath, int distance) {
+            this.imagePath = imagePath;
+            this.distance = distance;
+        }
+
+        public String getImagePath() {
+            return imagePath;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    private Node root;
+    private final Map<String, Long> hashes = new HashMap<>();
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private int emptyNodes;
+
+    /**
+     * Indexes an image.
+     *
+     * @param imagePath the image path
+     * @param hash      the perceptual hash of the image
+     */
+    public synchronized void add(String imagePath, long hash) {
+        Long old = hashes.put(imagePath, hash);
+        if (old != null) {
+            if (old == hash) {
+                return;
+            }
+            removeFromNode(imagePath, old);
+        }
+        Node node = nodes.get(hash);
+        if (node == null) {
+            node = new Node(hash);
+            nodes.put(hash, node);
+            insert(node);
+        } else if (node.paths.isEmpty()) {
+            emptyNodes--;
+        }
+        node.paths.add(imagePath);
+    }
+
+    /**
+     * Removes an image that is no longer in any album.
+     *
+     * @param imagePath the image path
+     */
+    public synchronized void remove(String imagePath) {
+        Long hash = hashes.remove(imagePath);
+        if (hash != null) {
+            removeFromNode(imagePath, hash);
+            if (emptyNodes > nodes.size() - emptyNodes) {
+                rebuild();
+            }
+        }
+    }
+
+    /**
+     * Returns whether an image is indexed.
+     *
+     * @param imagePath the image path
+     * @return true if the image is indexed
+     */
+    public synchronized boolean contains(String imagePath) {
+        return hashes.containsKey(imagePath);
+    }
+
+    /**
+     * Returns the number of indexed images.
+     *
+     * @return the number of images
+     */
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Finds every image whose hash is within a distance of the given hash.
+     *
+     * @param hash        the hash to search for
+     * @param maxDistance the largest number of differing bits
+     * @return the matching images, closest first
+     */
+    public synchronized List<Match> query(long hash, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (String path : node.paths) {
+                    matches.add(new Match(path, distance));
+                }
+            }
+            if (node.children != null) {
+                int low = Math.max(1, distance - maxDistance);
+                int high = Math.min(64, distance + maxDistance);
+                for (int d = low; d <= high; d++) {
+                    if (node.children[d] != null) {
+                        pending.push(node.children[d]);
+                    }
+                }
+            }
+        }
+        matches.sort((a, b) -> Integer.compare(a.distance, b.distance));
+        return matches;
+    }
+
+    /**
+     * Groups the indexed images into sets of near-duplicates. Two images are in the same group when
+     * they are within the distance of each other, directly or through other images of the group.
+     *
+     * @param maxDistance the largest number of differing bits
+     * @return the groups with more than one image
+     */
+    public synchronized List<List<String>> groups(int maxDistance) {
+        List<Node> live = new ArrayList<>();
+        Map<Long, Integer> positions = new HashMap<>();
+        for (Node node : nodes.values()) {
+            if (!node.paths.isEmpty()) {
+                positions.put(node.hash, live.size());
+                live.add(node);
+            }
+        }
+
+        // Union-find over the nodes, joining each node with every node in range
+        int[] parents = new int[live.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < live.size(); i++) {
+            for (Match match : query(live.get(i).hash, maxDistance)) {
+                int other = positions.get(hashes.get(match.getImagePath()));
+                int a = find(parents, i);
+                int b = find(parents, other);
+                if (a != b) {
+                    parents[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        Map<Integer, List<String>> groups = new HashMap<>();
+        for (int i = 0; i < live.size(); i++) {
+            groups.computeIfAbsent(find(parents, i), set -> new ArrayList<>()).addAll(live.get(i).paths);
+        }
+        List<List<String>> result = new ArrayList<>();
+        for (List<String> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private void insert(Node node) {
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node parent = root;
+        while (true) {
+            int distance = PerceptualHash.distance(node.hash, parent.hash);
+            if (parent.children == null) {
+                parent.children = new Node[65];
+            }
+            if (parent.children[distance] == null) {
+                parent.children[distance] = node;
+                return;
+            }
+            parent = parent.children[distance];
+        }
+    }
+
+    private void removeFromNode(String imagePath, long hash) {
+        Node node = nodes.get(hash);
+        node.paths.remove(imagePath);
+        if (node.paths.isEmpty()) {
+            emptyNodes++;
+        }
+    }
+
+    // Drops the empty nodes by inserting the nodes in use into a new tree
+    private void rebuild() {
+        List<Node> live = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            if (!node.paths.isEmpty()) {
+                Node copy = new Node(node.hash);
+                copy.paths.addAll(node.paths);
+                live.add(copy);
+            }
+        }
+        root = null;
+        nodes.clear();
+        emptyNodes = 0;
+        for (Node node : live) {
+            nodes.put(node.hash, node);
+            insert(node);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The PerceptualHash class computes a difference hash (dHash) of an image: a 64-bit fingerprint that
+ * stays nearly the same when the image is resized, re-encoded or slightly edited.
+ * <p>
+ * The image is reduced to a 9 by 8 grid of average brightness, and each bit records whether a cell
+ * is darker than its right neighbour. Two images are near-duplicates when their hashes differ in only
+ * a few bits, as measured by {@link #distance(long, long)}.
+ */
+public final class PerceptualHash {
+
+    // Images are decoded at roughly this many pixels on the short side before they are reduced
+    private static final int DECODE_SIZE = 64;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Returns the number of bits in which two hashes differ.
+     *
+     * @param a the first hash
+     * @param b the second hash
+     * @return the Hamming distance, from 0 to 64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Computes the hash of an image file.
+     *
+     * @param file the image file
+     * @return the 64-bit hash
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static long compute(File file) throws IOException {
+        return compute(decode(file));
+    }
+
+    /**
+     * Computes the hash of a decoded image.
+     *
+     * @param image the image
+     * @return the 64-bit hash
+     */
+    public static long compute(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        // Average brightness over a 9 by 8 grid of equal areas
+        double[] cells = new double[9 * 8];
+        int[] counts = new int[9 * 8];
+        for (int y = 0; y < height; y++) {
+            int row = Math.min(7, y * 8 / height);
+            for (int x = 0; x < width; x++) {
+                int column = Math.min(8, x * 9 / width);
+                int rgb = pixels[y * width + x];
+                int red = (rgb >> 16) & 0xFF;
+                int green = (rgb >> 8) & 0xFF;
+                int blue = rgb & 0xFF;
+                cells[row * 9 + column] += 0.299 * red + 0.587 * green + 0.114 * blue;
+                counts[row * 9 + column]++;
+            }
+        }
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = counts[i] == 0 ? 0 : cells[i] / counts[i];
+        }
+
+        long hash = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int column = 0; column < 8; column++) {
+                hash <<= 1;
+                if (cells[row * 9 + column] < cells[row * 9 + column + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    // Decodes only every n-th row and column of large images, which is much faster than a full decode
+    private static BufferedImage decode(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                throw new IOException("Cannot read " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int shortSide = Math.min(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, shortSide / DECODE_SIZE);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
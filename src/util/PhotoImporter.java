@@ -0,0 +1,229 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import model.Photo;
+
+/**
+ * The PhotoImporter class imports many image files at once, such as a whole directory tree.
+ * <p>
+ * Each file is prepared on a small pool of worker threads: its content is hashed, its date is read
+ * from its header, it is matched against the images already in the library, and its thumbnail is
+ * generated and saved.
+ * Only a few files more than there are workers are in progress at a time, so memory use does not
+ * grow with the size of the import. Prepared photos are handed to the {@link Listener} in batches,
+ * so the caller can add a whole batch to an album, save and refresh its view once per batch.
+ * An import can be cancelled from any thread; photos already handed over are kept.
+ */
+public class PhotoImporter {
+
+    /**
+     * The number of photos handed to the listener at a time.
+     */
+    public static final int BATCH_SIZE = 50;
+
+    private static final String[] EXTENSIONS = { ".jpg", ".jpeg", ".png", ".bmp", ".gif" };
+
+    /**
+     * Receives the results of an import. Both methods are called on the thread that runs the import.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the next photos ready to be added to the album.
+         *
+         * @param photos the prepared photos, in no particular order
+         */
+        void batchReady(List<Photo> photos);
+
+        /**
+         * Called after each file has been prepared or has failed.
+         *
+         * @param done  the number of files processed so far
+         * @param total the number of files being imported
+         */
+        void progress(int done, int total);
+    }
+
+    private final Listener listener;
+    private final int thumbnailSize;
+    private boolean findDuplicates = true;
+    private volatile boolean cancelled;
+    private int failed;
+
+    // The first photo of each content hash seen in this import, so a file imported twice is stored once
+    private final Map<String, Photo> importedByHash = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an importer.
+     *
+     * @param listener      receives the prepared photos and the progress
+     * @param thumbnailSize the thumbnail size to generate, or 0 to generate none
+     */
+    public PhotoImporter(Listener listener, int thumbnailSize) {
+        this.listener = listener;
+        this.thumbnailSize = thumbnailSize;
+    }
+
+    /**
+     * Sets whether imported images are matched against the images already in the library. Turn it
+     * off only while the library is being created, before the repository has been loaded.
+     *
+     * @param findDuplicates true to share the records of images already in the library
+     */
+    public void setFindDuplicates(boolean findDuplicates) {
+        this.findDuplicates = findDuplicates;
+    }
+
+    /**
+     * Stops the import. Files already being prepared are finished but not handed over.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of files of the last import that could not be read.
+     *
+     * @return the number of failed files
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Checks whether a file name has the extension of a supported image format.
+     *
+     * @param name the file name
+     * @return true if the file is an image
+     */
+    public static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists the image files in a directory and all of its subdirectories, in path order.
+     *
+     * @param directory the directory to search
+     * @return the image files
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<File> findImages(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> isImage(path.getFileName().toString()))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Imports files, blocking until every file has been prepared or the import is cancelled.
+     *
+     * @param files the image files to import
+     * @return the number of photos handed to the listener
+     */
+    public int importFiles(List<File> files) {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "photo-importer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Photo> completion = new ExecutorCompletionService<>(workers);
+        int maxInFlight = threads * 2;
+        int submitted = 0;
+        int done = 0;
+        int imported = 0;
+        failed = 0;
+        List<Photo> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (done < submitted || (submitted < files.size() && !cancelled)) {
+                while (submitted < files.size() && submitted - done < maxInFlight && !cancelled) {
+                    File file = files.get(submitted++);
+                    completion.submit(() -> prepare(file));
+                }
+                Photo photo = null;
+                try {
+                    photo = completion.take().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("Error importing photo: " + e.getCause().getMessage());
+                }
+                done++;
+                if (photo != null && !cancelled) {
+                    batch.add(photo);
+                    if (batch.size() == BATCH_SIZE) {
+                        listener.batchReady(batch);
+                        imported += batch.size();
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                listener.progress(done, files.size());
+            }
+            if (!batch.isEmpty() && !cancelled) {
+                listener.batchReady(batch);
+                imported += batch.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } finally {
+            workers.shutdownNow();
+            importedByHash.clear();
+        }
+        return imported;
+    }
+
+    // Runs on a worker thread
+    private Photo prepare(File file) throws IOException {
+        if (cancelled) {
+            return null;
+        }
+        String imagePath = file.toURI().toString();
+        Photo photo = new Photo(file.getName(), ImageMetadata.read(file).getDate());
+        photo.setImagePath(imagePath);
+
+        // Share the record of an image already in the library or already seen in this import
+        Photo existing = findDuplicates ? DataRepository.getInstance().findImage(file) : null;
+        if (existing == null) {
+            existing = importedByHash.putIfAbsent(ContentHashCache.getInstance().hash(file), photo);
+        }
+        if (existing != null) {
+            photo.setImage(existing.getImage());
+        } else if (thumbnailSize > 0) {
+            ThumbnailCache.getInstance().prepare(imagePath, thumbnailSize);
+        }
+        return photo;
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import model.Photo;
+import model.Tag;
+
+/**
+ * The PhotoQuery class is a parsed photo search written in a small query language, for example
+ * <pre>
+ * person=alice AND (place=paris OR place=rome) AND date:2024-01..2024-06
+ * </pre>
+ * <ul>
+ * <li>{@code type=value} matches photos with that tag, ignoring case. Either side may be quoted.</li>
+ * <li>{@code date:from..to} matches photos dated in the range, including both ends. A bound may be
+ * a year, a month ({@code 2024-06}) or a day ({@code 2024-06-15}), and either bound may be left out.
+ * {@code date:2024-06} on its own matches the whole month.</li>
+ * <li>{@code AND} binds tighter than {@code OR}; parentheses group.</li>
+ * </ul>
+ * Before running, the query is planned against the tag and date indexes: the terms of every AND are
+ * ordered by their estimated number of matches, the most selective term is evaluated first, and
+ * evaluation stops as soon as the candidates run out. Once the candidates are far fewer than the
+ * matches of the next term, they are checked photo by photo instead of loading that term's ids.
+ */
+public class PhotoQuery {
+
+    // Checking one photo against a term costs about this many steps of merging two id lists
+    private static final int FILTER_COST = 16;
+
+    private final Node root;
+
+    private PhotoQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param query the query text
+     * @return the parsed query
+     * @throws ParseException if the query is not valid; the error offset points at the problem
+     */
+    public static PhotoQuery parse(String query) throws ParseException {
+        Parser parser = new Parser(query);
+        Node root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw new ParseException("Unexpected '" + parser.peek().text + "'", parser.peek().offset);
+        }
+        return new PhotoQuery(root);
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @param registry  the registry the indexes use for photo ids
+     * @param tagIndex  the tag index
+     * @param dateIndex the date index
+     * @return the matching photos, in id order
+     */
+    public List<Photo> execute(PhotoRegistry registry, TagIndex tagIndex, DateIndex dateIndex) {
+        Context context = new Context(registry, tagIndex, dateIndex);
+        root.plan(context);
+        return registry.photos(root.evaluate(context));
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  QUERY TREE
+
+    private static class Context {
+        final PhotoRegistry registry;
+        final TagIndex tagIndex;
+        final DateIndex dateIndex;
+
+        Context(PhotoRegistry registry, TagIndex tagIndex, DateIndex dateIndex) {
+            this.registry = registry;
+            this.tagIndex = tagIndex;
+            this.dateIndex = dateIndex;
+        }
+    }
+
+    private abstract static class Node {
+        // Estimated number of matching photos, filled in by plan
+        int cost;
+
+        abstract void plan(Context context);
+
+        // Returns the sorted ids of the matching photos
+        abstract int[] evaluate(Context context);
+
+        abstract boolean matches(Photo photo);
+    }
+
+    private static class TagTerm extends Node {
+        final String tagName;
+        final String tagValue;
+        final String key;
+
+        TagTerm(String tagName, String tagValue) {
+            this.tagName = tagName;
+            this.tagValue = tagValue;
+            this.key = TagIndex.key(tagName, tagValue);
+        }
+
+        @Override
+        void plan(Context context) {
+            cost = context.tagIndex.count(tagName, tagValue);
+        }
+
+        @Override
+        int[] evaluate(Context context) {
+            return context.tagIndex.postings(tagName, tagValue);
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            for (Tag tag : photo.getTags()) {
+                if (key.equals(TagIndex.key(tag.getTagName(), tag.getTagValue()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return tagName + "=" + tagValue;
+        }
+    }
+
+    private static class DateTerm extends Node {
+        final LocalDateTime from;
+        final LocalDateTime toExclusive;
+        final String text;
+
+        DateTerm(LocalDateTime from, LocalDateTime toExclusive, String text) {
+            this.from = from;
+            this.toExclusive = toExclusive;
+            this.text = text;
+        }
+
+        @Override
+        void plan(Context context) {
+            cost = context.dateIndex.count(from, toExclusive);
+        }
+
+        @Override
+        int[] evaluate(Context context) {
+            int[] ids = context.dateIndex.range(from, toExclusive);
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            LocalDateTime date = photo.getDate();
+            return date != null && DateIndex.key(date) >= DateIndex.key(from)
+                    && DateIndex.key(date) < DateIndex.key(toExclusive);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    private static class And extends Node {
+        final List<Node> terms = new ArrayList<>();
+
+        @Override
+        void plan(Context context) {
+            for (Node term : terms) {
+                term.plan(context);
+            }
+            terms.sort(Comparator.comparingInt(term -> term.cost));
+            cost = terms.get(0).cost;
+        }
+
+        @Override
+        int[] evaluate(Context context) {
+            int[] result = terms.get(0).evaluate(context);
+            for (int i = 1; i < terms.size() && result.length > 0; i++) {
+                Node term = terms.get(i);
+                if ((long) result.length * FILTER_COST < term.cost) {
+                    result = filter(result, term, context);
+                } else {
+                    result = TagIndex.intersect(result, term.evaluate(context));
+                }
+            }
+            return result;
+        }
+
+        private static int[] filter(int[] ids, Node term, Context context) {
+            int[] result = new int[ids.length];
+            int n = 0;
+            for (int id : ids) {
+                Photo photo = context.registry.get(id);
+                if (photo != null && term.matches(photo)) {
+                    result[n++] = id;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            for (Node term : terms) {
+                if (!term.matches(photo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return join(terms, " AND ");
+        }
+    }
+
+    private static class Or extends Node {
+        final List<Node> terms = new ArrayList<>();
+
+        @Override
+        void plan(Context context) {
+            long total = 0;
+            for (Node term : terms) {
+                term.plan(context);
+                total += term.cost;
+            }
+            cost = (int) Math.min(total, Integer.MAX_VALUE);
+        }
+
+        @Override
+        int[] evaluate(Context context) {
+            int[] result = new int[0];
+            for (Node term : terms) {
+                result = TagIndex.union(result, term.evaluate(context));
+            }
+            return result;
+        }
+
+        @Override
+        boolean matches(Photo photo) {
+            for (Node term : terms) {
+                if (term.matches(photo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(terms, " OR ") + ")";
+        }
+    }
+
+    private static String join(List<Node> terms, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (Node term : terms) {
+            if (builder.length() > 0) {
+                builder.append(separator);
+            }
+            builder.append(term);
+        }
+        return builder.toString();
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  PARSER
+
+    private static class Token {
+        final String text;
+        final int offset;
+        final boolean quoted;
+
+        Token(String text, int offset, boolean quoted) {
+            this.text = text;
+            this.offset = offset;
+            this.quoted = quoted;
+        }
+
+        boolean is(String symbol) {
+            return !quoted && text.equalsIgnoreCase(symbol);
+        }
+    }
+
+    private static class Parser {
+        private final List<Token> tokens = new ArrayList<>();
+        private final int length;
+        private int position;
+
+        Parser(String query) throws ParseException {
+            length = query.length();
+            int i = 0;
+            while (i < length) {
+                char c = query.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || c == '=') {
+                    tokens.add(new Token(String.valueOf(c), i, false));
+                    i++;
+                } else if (c == '"') {
+                    int end = query.indexOf('"', i + 1);
+                    if (end < 0) {
+                        throw new ParseException("Missing closing quote", i);
+                    }
+                    tokens.add(new Token(query.substring(i + 1, end), i, true));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < length && !Character.isWhitespace(query.charAt(i)) && "()=\"".indexOf(query.charAt(i)) < 0) {
+                        i++;
+                    }
+                    tokens.add(new Token(query.substring(start, i), start, false));
+                }
+            }
+        }
+
+        Token peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private Token next(String expected) throws ParseException {
+            Token token = peek();
+            if (token == null) {
+                throw new ParseException("Expected " + expected + " at end of query", length);
+            }
+            position++;
+            return token;
+        }
+
+        private boolean accept(String symbol) {
+            Token token = peek();
+            if (token != null && token.is(symbol)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        Node parseOr() throws ParseException {
+            Node first = parseAnd();
+            if (peek() == null || !peek().is("OR")) {
+                return first;
+            }
+            Or or = new Or();
+            or.terms.add(first);
+            while (accept("OR")) {
+                or.terms.add(parseAnd());
+            }
+            return or;
+        }
+
+        private Node parseAnd() throws ParseException {
+            Node first = parseTerm();
+            if (peek() == null || !peek().is("AND")) {
+                return first;
+            }
+            And and = new And();
+            and.terms.add(first);
+            while (accept("AND")) {
+                and.terms.add(parseTerm());
+            }
+            return and;
+        }
+
+        private Node parseTerm() throws ParseException {
+            Token token = next("a search term");
+            if (token.is("(")) {
+                Node inner = parseOr();
+                Token close = next("')'");
+                if (!close.is(")")) {
+                    throw new ParseException("Expected ')'", close.offset);
+                }
+                return inner;
+            }
+            if (token.is(")") || token.is("=") || token.is("AND") || token.is("OR")) {
+                throw new ParseException("Expected a search term", token.offset);
+            }
+            if (!token.quoted && token.text.toLowerCase(Locale.ROOT).startsWith("date:")) {
+                return parseDate(token);
+            }
+            Token equals = next("'='");
+            if (!equals.is("=")) {
+                throw new ParseException("Expected '=' after tag type", equals.offset);
+            }
+            Token value = next("a tag value");
+            if (!value.quoted && (value.is("(") || value.is(")") || value.is("="))) {
+                throw new ParseException("Expected a tag value", value.offset);
+            }
+            return new TagTerm(token.text, value.text);
+        }
+
+        private static DateTerm parseDate(Token token) throws ParseException {
+            String range = token.text.substring("date:".length());
+            int separator = range.indexOf("..");
+            String low = separator < 0 ? range : range.substring(0, separator);
+            String high = separator < 0 ? range : range.substring(separator + 2);
+            if (low.isEmpty() && high.isEmpty()) {
+                throw new ParseException("Expected a date", token.offset);
+            }
+            LocalDateTime from = low.isEmpty() ? LocalDateTime.of(-999_999_999, 1, 1, 0, 0)
+                    : parseBound(low, false, token.offset);
+            LocalDateTime to = high.isEmpty() ? LocalDateTime.of(999_999_999, 12, 31, 0, 0)
+                    : parseBound(high, true, token.offset);
+            return new DateTerm(from, to, token.text);
+        }
+
+        // Parses a year, month or day, returning its first moment, or the first moment after it when end is set
+        private static LocalDateTime parseBound(String text, boolean end, int offset) throws ParseException {
+            try {
+                String[] parts = text.split("-");
+                if (parts.length == 1) {
+                    LocalDate year = LocalDate.of(Integer.parseInt(parts[0]), 1, 1);
+                    return (end ? year.plusYears(1) : year).atStartOfDay();
+                } else if (parts.length == 2) {
+                    LocalDate month = LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 1);
+                    return (end ? month.plusMonths(1) : month).atStartOfDay();
+                } else {
+                    LocalDate day = LocalDate.parse(text);
+                    return (end ? day.plusDays(1) : day).atStartOfDay();
+                }
+            } catch (NumberFormatException | DateTimeException e) {
+                throw new ParseException("Invalid date '" + text + "'", offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.Photo;
+
+/**
+ * The PhotoRegistry class gives every photo in the library a small integer id, shared by all
+ * search indexes so their results can be combined.
+ * <p>
+ * Ids are handed out in increasing order and never reused. A photo that is in several albums is
+ * registered once and reference counted, so it keeps its id until it has been removed from every album.
+ */
+public class PhotoRegistry {
+
+    private final Map<Photo, Integer> ids = new IdentityHashMap<>();
+    private final List<Photo> photos = new ArrayList<>();
+    private int[] references = new int[16];
+
+    /**
+     * Adds a reference to a photo, registering it if this is the first one.
+     *
+     * @param photo the photo that was added to an album
+     * @return true if the photo was not registered before
+     */
+    public synchronized boolean retain(Photo photo) {
+        Integer id = ids.get(photo);
+        if (id != null) {
+            references[id]++;
+            return false;
+        }
+        id = photos.size();
+        ids.put(photo, id);
+        photos.add(photo);
+        if (id == references.length) {
+            references = Arrays.copyOf(references, id * 2);
+        }
+        references[id] = 1;
+        return true;
+    }
+
+    /**
+     * Removes a reference to a photo. The photo is unregistered when the last reference is released,
+     * but {@link #idOf(Photo)} still returns its id until then so indexes can remove it.
+     *
+     * @param photo the photo that was removed from an album
+     * @return true if that was the last reference
+     */
+    public synchronized boolean release(Photo photo) {
+        Integer id = ids.get(photo);
+        return id != null && --references[id] == 0;
+    }
+
+    /**
+     * Forgets a photo whose last reference was released.
+     *
+     * @param photo the photo to forget
+     */
+    public synchronized void remove(Photo photo) {
+        Integer id = ids.remove(photo);
+        if (id != null) {
+            photos.set(id, null);
+        }
+    }
+
+    /**
+     * Returns the id of a registered photo.
+     *
+     * @param photo the photo
+     * @return the id, or -1 if the photo is not registered
+     */
+    public synchronized int idOf(Photo photo) {
+        Integer id = ids.get(photo);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the photo with the given id.
+     *
+     * @param id the photo id
+     * @return the photo, or null if it has been removed
+     */
+    public synchronized Photo get(int id) {
+        return photos.get(id);
+    }
+
+    /**
+     * Returns the number of ids handed out so far; every id is below this bound.
+     *
+     * @return the id bound
+     */
+    public synchronized int idBound() {
+        return photos.size();
+    }
+
+    /**
+     * Maps photo ids back to photos, skipping removed ones.
+     *
+     * @param ids the photo ids
+     * @return the photos, in the order of the ids
+     */
+    public synchronized List<Photo> photos(int[] ids) {
+        List<Photo> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Photo photo = photos.get(id);
+            if (photo != null) {
+                result.add(photo);
+            }
+        }
+        return result;
+    }
+}
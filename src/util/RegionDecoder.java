@@ -0,0 +1,112 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * The RegionDecoder class decodes part of an image file at a chosen resolution.
+ * <p>
+ * A zoomed-in view only needs the pixels of the region it shows, at no more than the resolution of
+ * the screen. The region is decoded with ImageIO, reading only every n-th row and column of it when
+ * it is larger than the requested size, so the decoded image is never much larger than the view,
+ * however large the file is.
+ */
+public final class RegionDecoder {
+
+    // One decode at a time; a newer request for the same view replaces an older one anyway
+    private static final ExecutorService decoder = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "region-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private RegionDecoder() {
+    }
+
+    /**
+     * Decodes a region of an image in the background.
+     *
+     * @param file     the image file
+     * @param region   the region to decode, in pixels of the full image
+     * @param maxWidth the width the region is shown at; the result is between this and twice this wide
+     *                 unless the region itself is narrower
+     * @return a future that completes with the decoded region
+     */
+    public static CompletableFuture<Image> decodeAsync(File file, Rectangle region, int maxWidth) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return decode(file, region, maxWidth);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, decoder);
+    }
+
+    /**
+     * Decodes a region of an image.
+     *
+     * @param file     the image file
+     * @param region   the region to decode, in pixels of the full image
+     * @param maxWidth the width the region is shown at; the result is between this and twice this wide
+     *                 unless the region itself is narrower
+     * @return the decoded region
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static Image decode(File file, Rectangle region, int maxWidth) throws IOException {
+        BufferedImage decoded;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                throw new IOException("Cannot read " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                Rectangle bounds = region.intersection(new Rectangle(reader.getWidth(0), reader.getHeight(0)));
+                if (bounds.isEmpty()) {
+                    throw new IOException("Region outside of image: " + file.getName());
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(bounds);
+                int step = Math.max(1, bounds.width / Math.max(1, maxWidth));
+                param.setSourceSubsampling(step, step, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        return toImage(decoded);
+    }
+
+    private static Image toImage(BufferedImage decoded) {
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        int[] pixels = decoded.getRGB(0, 0, width, height, null, 0, width);
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import model.Photo;
+import model.Tag;
+
+/**
+ * The TagIndex class is an inverted index from a tag (type and value, compared ignoring case)
+ * to the photos that carry it.
+ * <p>
+ * Photos are identified by their {@link PhotoRegistry} id, and each tag maps to a sorted posting
+ * list of those ids, so a single tag search is a map lookup and AND/OR searches are linear merges
+ * of two sorted lists. The index is updated incrementally as photos and tags are added and removed.
+ */
+public class TagIndex {
+
+    private final PhotoRegistry registry;
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    /**
+     * Creates an empty tag index.
+     *
+     * @param registry the registry that assigns photo ids
+     */
+    public TagIndex(PhotoRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * A growable sorted list of photo ids.
+     */
+    private static class PostingList {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+                size--;
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    /**
+     * Returns the key a tag is indexed under.
+     *
+     * @param tagName  the tag type
+     * @param tagValue the tag value
+     * @return the normalized key
+     */
+    static String key(String tagName, String tagValue) {
+        return tagName.toLowerCase(Locale.ROOT) + '\u0000' + tagValue.toLowerCase(Locale.ROOT);
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  UPDATES
+
+    /**
+     * Indexes the tags of a newly registered photo.
+     *
+     * @param id    the id of the photo
+     * @param photo the photo
+     */
+    public synchronized void addPhoto(int id, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            postings.computeIfAbsent(key(tag.getTagName(), tag.getTagValue()), k -> new PostingList()).add(id);
+        }
+    }
+
+    /**
+     * Removes a photo that is no longer in any album.
+     *
+     * @param id    the id of the photo
+     * @param photo the photo
+     */
+    public synchronized void removePhoto(int id, Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            PostingList list = postings.get(key(tag.getTagName(), tag.getTagValue()));
+            if (list != null) {
+                list.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Indexes a tag that was added to a photo.
+     *
+     * @param id  the id of the photo the tag was added to
+     * @param tag the tag that was added
+     */
+    public synchronized void addTag(int id, Tag tag) {
+        postings.computeIfAbsent(key(tag.getTagName(), tag.getTagValue()), k -> new PostingList()).add(id);
+    }
+
+    /**
+     * Removes a tag that was removed from a photo.
+     * The photo stays in the posting list if it still has another tag with the same key.
+     *
+     * @param id    the id of the photo the tag was removed from
+     * @param photo the photo the tag was removed from
+     * @param tag   the tag that was removed
+     */
+    public synchronized void removeTag(int id, Photo photo, Tag tag) {
+        String key = key(tag.getTagName(), tag.getTagValue());
+        for (Tag remaining : photo.getTags()) {
+            if (!remaining.equals(tag) && key.equals(key(remaining.getTagName(), remaining.getTagValue()))) {
+                return;
+            }
+        }
+        PostingList list = postings.get(key);
+        if (list != null) {
+            list.remove(id);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  QUERIES
+
+    /**
+     * Returns the sorted ids of the photos with the given tag.
+     *
+     * @param tagName  the tag type
+     * @param tagValue the tag value
+     * @return the posting list, empty if no photo has the tag
+     */
+    public synchronized int[] postings(String tagName, String tagValue) {
+        PostingList list = postings.get(key(tagName, tagValue));
+        return list == null ? new int[0] : list.toArray();
+    }
+
+    /**
+     * Returns the number of photos with the given tag without copying the posting list.
+     *
+     * @param tagName  the tag type
+     * @param tagValue the tag value
+     * @return the number of photos with the tag
+     */
+    public synchronized int count(String tagName, String tagValue) {
+        PostingList list = postings.get(key(tagName, tagValue));
+        return list == null ? 0 : list.size;
+    }
+
+    /**
+     * Intersects two sorted posting lists.
+     *
+     * @param a the first list
+     * @param b the second list
+     * @return the ids in both lists, sorted
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        return intersect(a, a.length, b, b.length);
+    }
+
+    // When one list is much shorter, each of its ids is located in the longer one by galloping search
+    private static int[] intersect(int[] a, int aSize, int[] b, int bSize) {
+        if (aSize > bSize) {
+            return intersect(b, bSize, a, aSize);
+        }
+        int[] result = new int[aSize];
+        int n = 0;
+        if (aSize * 8 < bSize) {
+            int from = 0;
+            for (int i = 0; i < aSize && from < bSize; i++) {
+                int bound = 1;
+                while (from + bound < bSize && b[from + bound] < a[i]) {
+                    bound <<= 1;
+                }
+                int position = Arrays.binarySearch(b, from, Math.min(from + bound + 1, bSize), a[i]);
+                if (position >= 0) {
+                    result[n++] = a[i];
+                    from = position + 1;
+                } else {
+                    from = -position - 1;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        }
+        int i = 0, j = 0;
+        while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Merges two sorted posting lists.
+     *
+     * @param a the first list
+     * @param b the second list
+     * @return the ids in either list, sorted and without duplicates
+     */
+    public static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Finds the photos with the given tag.
+     *
+     * @param tagName  the tag type
+     * @param tagValue the tag value
+     * @return the matching photos
+     */
+    public List<Photo> search(String tagName, String tagValue) {
+        return registry.photos(postings(tagName, tagValue));
+    }
+
+    /**
+     * Finds the photos that have both tags.
+     *
+     * @param tagName1  the first tag type
+     * @param tagValue1 the first tag value
+     * @param tagName2  the second tag type
+     * @param tagValue2 the second tag value
+     * @return the matching photos
+     */
+    public synchronized List<Photo> searchAnd(String tagName1, String tagValue1, String tagName2, String tagValue2) {
+        PostingList first = postings.get(key(tagName1, tagValue1));
+        PostingList second = postings.get(key(tagName2, tagValue2));
+        if (first == null || second == null) {
+            return new ArrayList<>();
+        }
+        return registry.photos(intersect(first.ids, first.size, second.ids, second.size));
+    }
+
+    /**
+     * Finds the photos that have either tag.
+     *
+     * @param tagName1  the first tag type
+     * @param tagValue1 the first tag value
+     * @param tagName2  the second tag type
+     * @param tagValue2 the second tag value
+     * @return the matching photos
+     */
+    public List<Photo> searchOr(String tagName1, String tagValue1, String tagName2, String tagValue2) {
+        return registry.photos(union(postings(tagName1, tagValue1), postings(tagName2, tagValue2)));
+    }
+}
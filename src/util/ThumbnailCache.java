@@ -0,0 +1,245 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * The ThumbnailCache class is a singleton that supplies thumbnails to every list view in the application.
+ * <p>
+ * Thumbnails are loaded on background threads, so a list never waits on the UI thread. A thumbnail
+ * is read from the {@link ThumbnailStore} when one was saved by an earlier run; otherwise the original
+ * image is decoded at the thumbnail size and the result is saved for next time. Loaded thumbnails are
+ * kept in a least recently used cache keyed by image path and size, shared by all scenes. An image
+ * view shows a placeholder until its thumbnail has finished loading.
+ */
+public class ThumbnailCache {
+    private static ThumbnailCache instance;
+
+    /** The number of thumbnails kept in memory unless changed with {@link #setCapacity(int)}. */
+    public static final int DEFAULT_CAPACITY = 500;
+
+    private static final String REQUEST_KEY = ThumbnailCache.class.getName();
+    private static final Color PLACEHOLDER_COLOR = Color.gray(0.85);
+    private static final int LOADER_THREADS = 2;
+
+    private int capacity = DEFAULT_CAPACITY;
+    private final Map<Key, Image> thumbnails = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Image> eldest) {
+            return size() > capacity;
+        }
+    };
+    private final Map<Key, CompletableFuture<Image>> loading = new HashMap<>();
+    private final Map<Integer, Image> placeholders = new HashMap<>();
+    private final ThumbnailStore store = new ThumbnailStore(new File("data/thumbnails"));
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, task -> {
+        Thread thread = new Thread(task, "thumbnail-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ThumbnailCache() {
+    }
+
+    /**
+     * Returns the singleton instance of the ThumbnailCache class.
+     * If the instance does not exist, it is created.
+     *
+     * @return the singleton instance of the ThumbnailCache class
+     */
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            instance = new ThumbnailCache();
+        }
+        return instance;
+    }
+
+    private static final class Key {
+        final String imagePath;
+        final int size;
+
+        Key(String imagePath, int size) {
+            this.imagePath = imagePath;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return size == other.size && imagePath.equals(other.imagePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(imagePath, size);
+        }
+    }
+
+    /**
+     * Sets the number of thumbnails kept in memory, evicting the least recently used ones if needed.
+     *
+     * @param capacity the maximum number of cached thumbnails
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        Iterator<Key> iterator = thumbnails.keySet().iterator();
+        while (thumbnails.size() > this.capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public ThumbnailStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the thumbnail of an image, loading it in the background if it is not cached.
+     *
+     * @param imagePath the URL of the image
+     * @param size      the width and height of the box the thumbnail must fit in
+     * @return a future that completes with the thumbnail
+     */
+    public synchronized CompletableFuture<Image> load(String imagePath, int size) {
+        Key key = new Key(imagePath, size);
+        Image image = thumbnails.get(key);
+        if (image != null) {
+            return CompletableFuture.completedFuture(image);
+        }
+        CompletableFuture<Image> future = loading.get(key);
+        if (future == null) {
+            future = CompletableFuture.supplyAsync(() -> read(imagePath, size), loader);
+            loading.put(key, future);
+            future.whenComplete((loaded, error) -> {
+                synchronized (this) {
+                    loading.remove(key);
+                    if (loaded != null && !loaded.isError()) {
+                        thumbnails.put(key, loaded);
+                    }
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Loads the thumbnail of an image on the calling thread, saving it for later runs, so that
+     * showing it later costs no decoding. Used by imports, which run on their own worker threads.
+     *
+     * @param imagePath the URL of the image
+     * @param size      the width and height of the box the thumbnail must fit in
+     */
+    public void prepare(String imagePath, int size) {
+        Key key = new Key(imagePath, size);
+        synchronized (this) {
+            if (thumbnails.containsKey(key) || loading.containsKey(key)) {
+                return;
+            }
+        }
+        Image image = read(imagePath, size);
+        if (!image.isError()) {
+            synchronized (this) {
+                thumbnails.put(key, image);
+            }
+        }
+    }
+
+    // Runs on a loader thread, or on an import worker through prepare
+    private Image read(String imagePath, int size) {
+        File file = ContentHashCache.toFile(imagePath);
+        if (file == null || !file.isFile()) {
+            return decode(imagePath, size);
+        }
+        String hash;
+        try {
+            hash = ContentHashCache.getInstance().hash(file);
+        } catch (IOException e) {
+            System.err.println("Error reading image: " + e.getMessage());
+            return decode(imagePath, size);
+        }
+        File stored = store.find(hash, size);
+        if (stored != null) {
+            Image image = new Image(stored.toURI().toString());
+            if (!image.isError()) {
+                return image;
+            }
+            store.remove(hash, size);
+        }
+        Image image = decode(imagePath, size);
+        if (!image.isError()) {
+            store.save(hash, size, image);
+        }
+        return image;
+    }
+
+    private static Image decode(String imagePath, int size) {
+        return new Image(imagePath, size, size, true, true, false);
+    }
+
+    /**
+     * Shows the thumbnail of an image in an image view. The view shows a placeholder until the
+     * thumbnail is loaded; if the view is asked to show another image first, as happens when a list
+     * cell is reused while scrolling, the earlier thumbnail is not shown.
+     *
+     * @param view      the image view to update
+     * @param imagePath the URL of the image
+     * @param size      the width and height of the box the thumbnail must fit in
+     */
+    public void show(ImageView view, String imagePath, int size) {
+        CompletableFuture<Image> future = load(imagePath, size);
+        view.getProperties().put(REQUEST_KEY, future);
+        Image ready = future.getNow(null);
+        if (ready != null) {
+            view.setImage(ready.isError() ? placeholder(size) : ready);
+            return;
+        }
+        view.setImage(placeholder(size));
+        future.thenAccept(image -> Platform.runLater(() -> {
+            if (view.getProperties().get(REQUEST_KEY) == future && !image.isError()) {
+                view.setImage(image);
+            }
+        }));
+    }
+
+    private synchronized Image placeholder(int size) {
+        return placeholders.computeIfAbsent(size, s -> {
+            WritableImage image = new WritableImage(s, s);
+            PixelWriter writer = image.getPixelWriter();
+            for (int y = 0; y < s; y++) {
+                for (int x = 0; x < s; x++) {
+                    writer.setColor(x, y, PLACEHOLDER_COLOR);
+                }
+            }
+            return image;
+        });
+    }
+
+    /**
+     * Removes every cached thumbnail.
+     */
+    public synchronized void clear() {
+        thumbnails.clear();
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.imageio.ImageIO;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+
+/**
+ * The ThumbnailStore class keeps pre-scaled thumbnails on disk under {@code data/thumbnails}, so
+ * they survive restarts and the original images do not have to be decoded again.
+ * <p>
+ * A thumbnail file is named after the content hash of its original image and its size, so renamed
+ * or copied images share thumbnails and an edited image gets new ones. The directory is bounded in
+ * total size; when it grows past the limit the least recently used thumbnails are deleted.
+ */
+public class ThumbnailStore {
+
+    /** The total size of the thumbnail directory unless changed with {@link #setMaxBytes(long)}. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final File directory;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    // Total size of the directory, computed on first use
+    private long totalBytes = -1;
+
+    /**
+     * Creates a store over the given directory, which is created when the first thumbnail is saved.
+     *
+     * @param directory the thumbnail directory
+     */
+    public ThumbnailStore(File directory) {
+        this.directory = directory;
+    }
+
+    private File file(String hash, int size) {
+        return new File(directory, hash + "-" + size + ".png");
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Finds a stored thumbnail and marks it as recently used.
+     *
+     * @param hash the content hash of the original image
+     * @param size the thumbnail size
+     * @return the thumbnail file, or null if it is not stored
+     */
+    public synchronized File find(String hash, int size) {
+        File file = file(hash, size);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Removes a stored thumbnail, for example one that could not be decoded.
+     *
+     * @param hash the content hash of the original image
+     * @param size the thumbnail size
+     */
+    public synchronized void remove(String hash, int size) {
+        File file = file(hash, size);
+        long length = file.length();
+        if (file.delete() && totalBytes >= 0) {
+            totalBytes -= length;
+        }
+    }
+
+    /**
+     * Stores a thumbnail as a PNG file, then deletes the least recently used thumbnails if the
+     * directory is over its size limit.
+     *
+     * @param hash  the content hash of the original image
+     * @param size  the thumbnail size
+     * @param image the decoded thumbnail
+     */
+    public void save(String hash, int size, Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        PixelReader reader = image.getPixelReader();
+        if (reader == null || width <= 0 || height <= 0) {
+            return;
+        }
+        int[] pixels = new int[width * height];
+        reader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        BufferedImage buffered = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        buffered.setRGB(0, 0, width, height, pixels, 0, width);
+
+        File file = file(hash, size);
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            directory.mkdirs();
+            ImageIO.write(buffered, "png", temp);
+        } catch (IOException e) {
+            System.err.println("Error saving thumbnail: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            // Another thread may have stored the same thumbnail meanwhile; it is replaced, not added
+            long replaced = file.length();
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Error saving thumbnail: " + e.getMessage());
+                temp.delete();
+                return;
+            }
+            if (totalBytes >= 0) {
+                totalBytes += file.length() - replaced;
+            }
+            evict();
+        }
+    }
+
+    private File[] listThumbnails() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".png"));
+        return files == null ? new File[0] : files;
+    }
+
+    // Deletes the least recently used thumbnails until the directory is comfortably under the limit
+    private void evict() {
+        if (totalBytes < 0) {
+            totalBytes = 0;
+            for (File file : listThumbnails()) {
+                totalBytes += file.length();
+            }
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        File[] files = listThumbnails();
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+        long target = maxBytes - maxBytes / 10;
+        for (int i = 0; i < order.length && totalBytes > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+}
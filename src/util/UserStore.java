@@ -0,0 +1,462 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import model.Album;
+import model.User;
+
+/**
+ * The UserStore class gives random access to a binary snapshot (see {@link BinaryCodec}) by reading
+ * the file at given positions.
+ * <p>
+ * Opening the store reads only the header and the fixed-size username directory. A single user is
+ * found by binary search, reading one username from the file per step, and a user's albums are read
+ * and decoded from their own section the first time they are accessed, so logging in costs the same
+ * no matter how many photos the file holds. Journal entries recorded after the snapshot are kept per
+ * user and applied when that user's albums are loaded.
+ * <p>
+ * The file is opened for each read and closed straight after, so it can be replaced while users are
+ * loaded from it, which a mapped or open file would prevent on Windows. Before {@link FileManager}
+ * replaces it, {@link #detachAll()} reads the sections of the users not loaded yet into memory.
+ */
+public class UserStore {
+
+    // Stores that still have users whose albums were not read; a store leaves once all are loaded
+    private static final Set<UserStore> pending = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final Path path;
+    private final long sequence;
+    private final Set<String> tagTypes;
+    private final Set<String> restrictedTagTypes;
+    private final int userCount;
+    private final ByteBuffer directory;
+    // Directory indexes of the users handed out whose albums were not read yet
+    private final Set<Integer> unloaded = new HashSet<>();
+    // The sections of those users once the file has been replaced, or null while it has not
+    private Map<Integer, byte[]> detached;
+
+    private UserStore(Path path, FileChannel channel, DataInputStream header) throws IOException {
+        this.path = path;
+        long position = BinaryCodec.MAGIC.length + 1;
+        sequence = header.readLong();
+        position += Long.BYTES;
+        tagTypes = new HashSet<>();
+        position = readStringSet(header, position, tagTypes);
+        restrictedTagTypes = new HashSet<>();
+        position = readStringSet(header, position, restrictedTagTypes);
+        userCount = header.readInt();
+        position += Integer.BYTES;
+        directory = read(channel, position, userCount * BinaryCodec.DIRECTORY_ENTRY_SIZE);
+    }
+
+    /**
+     * Opens a snapshot file and reads its header and username directory. The file is closed again
+     * before this returns.
+     *
+     * @param file the snapshot file
+     * @return the store for the file, or null if the file is not a binary snapshot in the current version
+     * @throws IOException if the file cannot be read
+     */
+    public static UserStore open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            byte[] magic = new byte[BinaryCodec.MAGIC.length];
+            if (header.readNBytes(magic, 0, magic.length) < magic.length || !BinaryCodec.isBinary(magic)
+                    || header.read() != BinaryCodec.VERSION) {
+                return null;
+            }
+            return new UserStore(file.toPath(), channel, header);
+        }
+    }
+
+    private static long readStringSet(DataInputStream in, long position, Set<String> set) throws IOException {
+        int count = in.readInt();
+        position += Integer.BYTES;
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            set.add(new String(in.readNBytes(length), StandardCharsets.UTF_8));
+            position += Integer.BYTES + length;
+        }
+        return position;
+    }
+
+    // Reads the given bytes of the file, which positional reads leave the channel's position alone for
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("The data file ends before the snapshot does");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Set<String> getTagTypes() {
+        return new HashSet<>(tagTypes);
+    }
+
+    public Set<String> getRestrictedTagTypes() {
+        return new HashSet<>(restrictedTagTypes);
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  DIRECTORY
+
+    private int entry(int index) {
+        return index * BinaryCodec.DIRECTORY_ENTRY_SIZE;
+    }
+
+    private int ordinalAt(int index) {
+        return directory.getInt(entry(index) + 24);
+    }
+
+    private String usernameAt(FileChannel channel, int index) throws IOException {
+        int entry = entry(index);
+        return StandardCharsets.UTF_8.decode(read(channel, directory.getLong(entry), directory.getInt(entry + 8))).toString();
+    }
+
+    // Reads every username with a single read, as the names are stored one after the other
+    private String[] usernames(FileChannel channel) throws IOException {
+        String[] names = new String[userCount];
+        if (userCount == 0) {
+            return names;
+        }
+        long start = Long.MAX_VALUE;
+        long end = 0;
+        for (int i = 0; i < userCount; i++) {
+            long offset = directory.getLong(entry(i));
+            start = Math.min(start, offset);
+            end = Math.max(end, offset + directory.getInt(entry(i) + 8));
+        }
+        byte[] bytes = read(channel, start, (int) (end - start)).array();
+        for (int i = 0; i < userCount; i++) {
+            int entry = entry(i);
+            names[i] = new String(bytes, (int) (directory.getLong(entry) - start), directory.getInt(entry + 8), StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    /**
+     * Finds a user in the directory by binary search. Must not be called after the file was replaced.
+     *
+     * @param username the username to look for
+     * @return the directory index of the user, or -1 if the snapshot has no such user
+     * @throws IOException if the file cannot be read
+     */
+    public int find(String username) throws IOException {
+        try (FileChannel channel = openChannel()) {
+            int low = 0;
+            int high = userCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = usernameAt(channel, mid).compareTo(username);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the usernames in the order the users were saved. Must not be called after the file
+     * was replaced.
+     *
+     * @return the usernames
+     * @throws IOException if the file cannot be read
+     */
+    public List<String> getUsernames() throws IOException {
+        String[] byIndex;
+        try (FileChannel channel = openChannel()) {
+            byIndex = usernames(channel);
+        }
+        String[] names = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            names[ordinalAt(i)] = byIndex[i];
+        }
+        return List.of(names);
+    }
+
+    /**
+     * Reads and decodes the albums of the user at the given directory index.
+     *
+     * @param index the directory index of the user
+     * @return the user's albums as they were saved in the snapshot
+     */
+    public ArrayList<Album> loadAlbums(int index) {
+        try {
+            return decode(section(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized byte[] section(int index) throws IOException {
+        if (detached != null) {
+            byte[] section = detached.get(index);
+            if (section == null) {
+                throw new IOException("The data file was replaced before the user was loaded");
+            }
+            return section;
+        }
+        try (FileChannel channel = openChannel()) {
+            return section(channel, index);
+        }
+    }
+
+    private byte[] section(FileChannel channel, int index) throws IOException {
+        int entry = entry(index);
+        return read(channel, directory.getLong(entry + 12), directory.getInt(entry + 20)).array();
+    }
+
+    private static ArrayList<Album> decode(byte[] section) throws IOException {
+        return BinaryCodec.readSection(new DataInputStream(new ByteArrayInputStream(section)));
+    }
+
+    // Notes a user handed out whose albums are read on first access
+    private synchronized void handedOut(int index) {
+        unloaded.add(index);
+        synchronized (pending) {
+            pending.add(this);
+        }
+    }
+
+    private synchronized void loaded(int index) {
+        unloaded.remove(index);
+        if (detached != null) {
+            detached.remove(index);
+        }
+        if (unloaded.isEmpty()) {
+            synchronized (pending) {
+                pending.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Reads the sections of every user not loaded yet, from every store, into memory, so the data
+     * file can be replaced. Called with the snapshot lock of {@link FileManager} held, which every
+     * store is opened and searched under.
+     *
+     * @throws IOException if the file cannot be read
+     */
+    static void detachAll() throws IOException {
+        List<UserStore> stores;
+        synchronized (pending) {
+            stores = new ArrayList<>(pending);
+        }
+        for (UserStore store : stores) {
+            store.detach();
+        }
+    }
+
+    private synchronized void detach() throws IOException {
+        if (detached != null) {
+            return;
+        }
+        Map<Integer, byte[]> sections = new HashMap<>();
+        if (!unloaded.isEmpty()) {
+            try (FileChannel channel = openChannel()) {
+                for (int index : unloaded) {
+                    sections.put(index, section(channel, index));
+                }
+            }
+        }
+        detached = sections;
+    }
+
+    // ------------------------------------------------------------------------------------
+    //                                  USERS
+
+    /**
+     * Builds the list of users described by the snapshot and the journal records that follow it.
+     * Users from the snapshot are created with lazily loaded albums; the journal entries affecting
+     * them are kept until the albums are loaded. Tag type entries are applied to the given sets.
+     *
+     * @param records            the journal records recorded after the snapshot
+     * @param tagTypes           the set of tag types to update
+     * @param restrictedTagTypes the set of restricted tag types to update
+     * @return the users in the order they were saved and added
+     * @throws IOException if the file cannot be read
+     */
+    public List<User> buildUsers(List<DataJournal.Record> records, Set<String> tagTypes, Set<String> restrictedTagTypes) throws IOException {
+        List<User> users = new ArrayList<>(userCount);
+        Map<String, User> byName = new HashMap<>();
+        Map<String, List<JournalEntry>> pending = new HashMap<>();
+        String[] byIndex;
+        try (FileChannel channel = openChannel()) {
+            byIndex = usernames(channel);
+        }
+        String[] names = new String[userCount];
+        int[] indexes = new int[userCount];
+        for (int i = 0; i < userCount; i++) {
+            names[ordinalAt(i)] = byIndex[i];
+            indexes[ordinalAt(i)] = i;
+        }
+        for (int i = 0; i < userCount; i++) {
+            String name = names[i];
+            int index = indexes[i];
+            List<JournalEntry> entries = new ArrayList<>();
+            User user = new User(name, () -> materialize(name, index, entries));
+            handedOut(index);
+            pending.put(name, entries);
+            byName.put(name, user);
+            users.add(user);
+        }
+
+        for (DataJournal.Record record : records) {
+            JournalEntry entry = record.entry;
+            String name = entry.getUsername();
+            switch (entry.getType()) {
+                case ADD_USER:
+                    if (!byName.containsKey(name)) {
+                        User user = new User(name);
+                        byName.put(name, user);
+                        users.add(user);
+                    }
+                    break;
+                case REMOVE_USER:
+                    users.remove(byName.remove(name));
+                    pending.remove(name);
+                    break;
+                case ADD_TAG_TYPE:
+                    entry.applyTo(users, tagTypes, restrictedTagTypes);
+                    break;
+                default:
+                    if (entry.isGlobal()) {
+                        for (User user : users) {
+                            defer(entry, user, pending);
+                        }
+                    } else if (byName.containsKey(name)) {
+                        defer(entry, byName.get(name), pending);
+                    }
+            }
+        }
+        return users;
+    }
+
+    private static void defer(JournalEntry entry, User user, Map<String, List<JournalEntry>> pending) {
+        List<JournalEntry> entries = pending.get(user.getUsername());
+        if (entries != null && !user.isLoaded()) {
+            entries.add(entry);
+        } else {
+            entry.applyTo(user);
+        }
+    }
+
+    /**
+     * Builds a single user from the snapshot and the journal records that follow it, without
+     * reading any other user. The returned user's albums are loaded on first access.
+     *
+     * @param username the username to look up
+     * @param records  the journal records recorded after the snapshot
+     * @return the user, or null if the user does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public User buildUser(String username, List<DataJournal.Record> records) throws IOException {
+        int index = find(username);
+        boolean exists = index >= 0;
+        List<JournalEntry> entries = new ArrayList<>();
+        for (DataJournal.Record record : records) {
+            JournalEntry entry = record.entry;
+            boolean forUser = username.equals(entry.getUsername());
+            if (entry.getType() == JournalEntry.Type.ADD_USER && forUser) {
+                if (!exists) {
+                    // A user added after the snapshot starts out without albums
+                    exists = true;
+                    index = -1;
+                    entries.clear();
+                }
+            } else if (entry.getType() == JournalEntry.Type.REMOVE_USER && forUser) {
+                exists = false;
+                entries.clear();
+            } else if (entry.isGlobal() || (forUser && entry.getType() != JournalEntry.Type.ADD_TAG_TYPE)) {
+                entries.add(entry);
+            }
+        }
+        if (!exists) {
+            return null;
+        }
+        int snapshotIndex = index;
+        if (snapshotIndex >= 0) {
+            handedOut(snapshotIndex);
+        }
+        return new User(username, () -> materialize(username, snapshotIndex, entries));
+    }
+
+    private List<Album> materialize(String username, int index, List<JournalEntry> entries) {
+        User user = new User(username);
+        if (index >= 0) {
+            user.addAlbums(loadAlbums(index));
+            loaded(index);
+        }
+        for (JournalEntry entry : entries) {
+            entry.applyTo(user);
+        }
+        return user.getAlbums();
+    }
+
+    /**
+     * Decodes the whole snapshot eagerly.
+     *
+     * @return the snapshot with every user's albums loaded
+     * @throws IOException if the file cannot be read
+     */
+    FileManager.Snapshot toSnapshot() throws IOException {
+        FileManager.Snapshot snapshot = new FileManager.Snapshot();
+        snapshot.sequence = sequence;
+        snapshot.tagTypes = getTagTypes();
+        snapshot.restrictedTagTypes = getRestrictedTagTypes();
+        User[] users = new User[userCount];
+        try (FileChannel channel = openChannel()) {
+            String[] names = usernames(channel);
+            for (int i = 0; i < userCount; i++) {
+                User user = new User(names[i]);
+                user.addAlbums(decode(section(channel, i)));
+                users[ordinalAt(i)] = user;
+            }
+        }
+        snapshot.users = new ArrayList<>(List.of(users));
+        return snapshot;
+    }
+}
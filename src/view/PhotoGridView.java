@@ -0,0 +1,218 @@
+/**
+ * @author Marc Rizzolo
+ */
+
+package view;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.WeakChangeListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.OverrunStyle;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import model.Photo;
+import util.ThumbnailCache;
+
+/**
+ * The PhotoGridView class shows the photos of an album as a grid of thumbnails with their captions.
+ * <p>
+ * The grid is a list view whose items are row numbers, so only the rows on screen have cells, and
+ * each row cell keeps its thumbnail tiles and fills them again when it is reused while scrolling. The
+ * number of nodes therefore depends on the size of the window, not of the album. A change to
+ * {@link #getPhotos()} only adds or drops rows at the end and refills the cells on screen; the grid
+ * is never rebuilt.
+ */
+public class PhotoGridView extends ListView<Integer> {
+
+    private static final int THUMBNAIL_SIZE = 70;
+    private static final int TILE_WIDTH = 110;
+    private static final int TILE_HEIGHT = 100;
+    private static final int GAP = 10;
+    private static final String SELECTED_STYLE = "-fx-background-color: -fx-selection-bar; -fx-background-radius: 4;";
+
+    private final ObservableList<Photo> photos = FXCollections.observableArrayList();
+    private final ObjectProperty<Photo> selectedPhoto = new SimpleObjectProperty<>();
+    // Increased whenever the cells on screen must be filled again
+    private final IntegerProperty version = new SimpleIntegerProperty();
+    private int columns = 1;
+
+    public PhotoGridView() {
+        setFixedCellSize(TILE_HEIGHT + GAP);
+        setCellFactory(list -> new RowCell());
+        photos.addListener((ListChangeListener<Photo>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved() && change.getRemoved().contains(selectedPhoto.get())) {
+                    selectedPhoto.set(null);
+                }
+            }
+            updateRows();
+        });
+        selectedPhoto.addListener((obs, oldPhoto, newPhoto) -> refreshTiles());
+        widthProperty().addListener((obs, oldWidth, newWidth) -> updateColumns());
+    }
+
+    /**
+     * Returns the photos shown by the grid, in order. Changes to the list are shown at once.
+     *
+     * @return the photos
+     */
+    public ObservableList<Photo> getPhotos() {
+        return photos;
+    }
+
+    public Photo getSelectedPhoto() {
+        return selectedPhoto.get();
+    }
+
+    public void setSelectedPhoto(Photo photo) {
+        selectedPhoto.set(photo);
+    }
+
+    public ObjectProperty<Photo> selectedPhotoProperty() {
+        return selectedPhoto;
+    }
+
+    /**
+     * Fills the tiles on screen again, after a caption or another detail of a shown photo changed.
+     */
+    public void refreshTiles() {
+        version.set(version.get() + 1);
+    }
+
+    // Fits as many tiles in a row as the width allows, leaving room for the scroll bar
+    private void updateColumns() {
+        int fit = Math.max(1, (int) ((getWidth() - 30) / (TILE_WIDTH + GAP)));
+        if (fit != columns) {
+            columns = fit;
+            updateRows();
+        }
+    }
+
+    // Adds or drops rows at the end to match the number of photos, then refills the cells on screen
+    private void updateRows() {
+        int rows = (photos.size() + columns - 1) / columns;
+        ObservableList<Integer> items = getItems();
+        if (items.size() < rows) {
+            List<Integer> added = new ArrayList<>(rows - items.size());
+            for (int row = items.size(); row < rows; row++) {
+                added.add(row);
+            }
+            items.addAll(added);
+        } else if (items.size() > rows) {
+            items.remove(rows, items.size());
+        }
+        refreshTiles();
+    }
+
+    /**
+     * A row of the grid. Its tiles are created once and filled again whenever the row shows other photos.
+     */
+    private final class RowCell extends ListCell<Integer> {
+        private final HBox row = new HBox(GAP);
+        private final List<Tile> tiles = new ArrayList<>();
+        // Held by the cell so the grid's weak reference does not keep discarded cells alive
+        private final ChangeListener<Number> versionListener = (obs, oldVersion, newVersion) -> fill();
+
+        RowCell() {
+            setText(null);
+            version.addListener(new WeakChangeListener<>(versionListener));
+        }
+
+        @Override
+        protected void updateItem(Integer item, boolean empty) {
+            super.updateItem(item, empty);
+            fill();
+        }
+
+        // A row is never selected; photos are selected by clicking their tile
+        @Override
+        public void updateSelected(boolean selected) {
+            super.updateSelected(false);
+        }
+
+        private void fill() {
+            Integer item = getItem();
+            if (isEmpty() || item == null) {
+                for (Tile tile : tiles) {
+                    tile.show(null);
+                }
+                setGraphic(null);
+                return;
+            }
+            while (tiles.size() < columns) {
+                Tile tile = new Tile();
+                tiles.add(tile);
+                row.getChildren().add(tile);
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                Tile tile = tiles.get(i);
+                int index = item * columns + i;
+                tile.setManaged(i < columns);
+                tile.show(i < columns && index < photos.size() ? photos.get(index) : null);
+            }
+            setGraphic(row);
+        }
+    }
+
+    /**
+     * One photo of the grid: its thumbnail above its caption.
+     */
+    private final class Tile extends VBox {
+        private final ImageView thumbnail = new ImageView();
+        private final Label caption = new Label();
+        private Photo photo;
+
+        Tile() {
+            super(4);
+            setAlignment(Pos.TOP_CENTER);
+            setPrefSize(TILE_WIDTH, TILE_HEIGHT);
+            setMinSize(TILE_WIDTH, TILE_HEIGHT);
+            setMaxSize(TILE_WIDTH, TILE_HEIGHT);
+            thumbnail.setFitWidth(THUMBNAIL_SIZE);
+            thumbnail.setFitHeight(THUMBNAIL_SIZE);
+            thumbnail.setPreserveRatio(true);
+            caption.setMaxWidth(TILE_WIDTH);
+            caption.setTextOverrun(OverrunStyle.ELLIPSIS);
+            getChildren().addAll(thumbnail, caption);
+            setOnMouseClicked(event -> {
+                if (photo != null) {
+                    selectedPhoto.set(photo);
+                }
+            });
+        }
+
+        void show(Photo shown) {
+            if (shown == null) {
+                photo = null;
+                thumbnail.setImage(null);
+                thumbnail.getProperties().clear();
+                caption.setText(null);
+                setVisible(false);
+                return;
+            }
+            // Only a different photo needs its thumbnail looked up again
+            if (shown != photo || thumbnail.getImage() == null) {
+                ThumbnailCache.getInstance().show(thumbnail, shown.getImagePath(), THUMBNAIL_SIZE);
+            }
+            photo = shown;
+            caption.setText(shown.getCaption());
+            setStyle(shown == selectedPhoto.get() ? SELECTED_STYLE : null);
+            setVisible(true);
+        }
+    }
+}